@@ -0,0 +1,13 @@
+package dev.soffa.foundation.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks an operation (or a method) that never writes, its queries may be served by a read replica.
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+@Documented
+public @interface ReadOnly {
+}
@@ -0,0 +1,20 @@
+package dev.soffa.foundation.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * Enables the second-level cache of findById results for the annotated entity.
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+@Documented
+public @interface StoreCache {
+
+    /**
+     * Time to live of cached entities, in seconds.
+     */
+    long ttl() default 300;
+
+    long maxSize() default 10_000;
+}
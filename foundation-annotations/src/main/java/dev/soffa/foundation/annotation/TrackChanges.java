@@ -0,0 +1,13 @@
+package dev.soffa.foundation.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * Entities loaded from the database are snapshotted, updates then only write the modified columns.
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+@Documented
+public @interface TrackChanges {
+}
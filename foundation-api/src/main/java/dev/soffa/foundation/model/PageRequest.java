@@ -11,5 +11,19 @@ public class PageRequest {
 
     private int number;
     private int size = 10;
+    /**
+     * Cursor of the previous page (see {@link PagedResult#getNext()}),
+     * when set the page is fetched with a keyset seek instead of an offset.
+     */
+    private String after;
+
+    public PageRequest(int number, int size) {
+        this.number = number;
+        this.size = size;
+    }
+
+    public static PageRequest after(String cursor, int size) {
+        return new PageRequest(0, size, cursor);
+    }
 
 }
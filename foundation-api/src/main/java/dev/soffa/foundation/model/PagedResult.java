@@ -12,9 +12,21 @@ import java.util.List;
 public class PagedResult<T> {
 
     private List<T> content;
+    /**
+     * Exact number of elements, or the planner estimate (flagged as {@code estimated}) when counting would be too expensive.
+     */
     private long totalElements;
     private int totalPages;
     private int size;
     private int number;
     private int numberOfElements;
+    private boolean estimated;
+    /**
+     * Cursor to pass as {@link PageRequest#getAfter()} to fetch the next page, null on the last page.
+     */
+    private String next;
+
+    public PagedResult(List<T> content, long totalElements, int totalPages, int size, int number, int numberOfElements) {
+        this(content, totalElements, totalPages, size, number, numberOfElements, false, null);
+    }
 }
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonValue;
 import lombok.Value;
 
+import java.util.Objects;
+
 @Value
 public class TenantId {
 
@@ -14,10 +16,19 @@ public class TenantId {
 
     @JsonValue
     String value;
+    /**
+     * Routing hint for the datasource lookup, not part of the identity of the tenant.
+     */
+    Route route;
 
     @JsonCreator
     public TenantId(String value) {
+        this(value, Route.AUTO);
+    }
+
+    private TenantId(String value, Route route) {
         this.value = value;
+        this.route = route;
     }
 
     public static TenantId of(String value) {
@@ -27,11 +38,43 @@ public class TenantId {
         return new TenantId(value);
     }
 
+    /**
+     * @return the same tenant, with reads served by a read replica when one is available
+     */
+    public TenantId onReplica() {
+        return new TenantId(value, Route.REPLICA);
+    }
+
+    /**
+     * @return the same tenant, always served by the primary datasource
+     */
+    public TenantId onPrimary() {
+        return new TenantId(value, Route.PRIMARY);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TenantId)) {
+            return false;
+        }
+        return Objects.equals(value, ((TenantId) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(value);
+    }
+
     @Override
     public String toString() {
         return value;
     }
 
-}
-
+    public enum Route {
+        AUTO, PRIMARY, REPLICA
+    }
 
+}
@@ -0,0 +1,30 @@
+package dev.soffa.foundation.error;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Raised when a task ran for several tenants failed for some of them, holds the failures and the results of the
+ * tenants that succeeded.
+ */
+public class TenantsException extends TechnicalException {
+
+    private static final long serialVersionUID = 1L;
+    private final transient Map<String, Throwable> failures;
+    private final transient Map<String, ?> results;
+
+    public TenantsException(Map<String, Throwable> failures, Map<String, ?> results) {
+        super(failures.values().iterator().next(), "Task failed for %d tenant(s): %s", failures.size(), failures.keySet());
+        this.failures = Collections.unmodifiableMap(failures);
+        this.results = Collections.unmodifiableMap(results);
+    }
+
+    public Map<String, Throwable> getFailures() {
+        return failures;
+    }
+
+    public Map<String, ?> getResults() {
+        return results;
+    }
+
+}
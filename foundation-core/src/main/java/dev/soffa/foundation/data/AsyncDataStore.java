@@ -0,0 +1,101 @@
+package dev.soffa.foundation.data;
+
+import dev.soffa.foundation.model.PageRequest;
+import dev.soffa.foundation.model.PagedResult;
+import dev.soffa.foundation.model.TenantId;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Non-blocking facade of {@link DataStore}: calls run on an executor bound to the tenant datasource and sized to its
+ * connection pool, so independent queries can be composed concurrently.
+ */
+public interface AsyncDataStore {
+
+    default <T> CompletableFuture<T> submit(Function<DataStore, T> action) {
+        return submit(TenantId.CONTEXT, action);
+    }
+
+    /**
+     * Runs the action on the executor of the tenant datasource. The active tenant and context of the caller are
+     * active while it runs.
+     */
+    <T> CompletableFuture<T> submit(TenantId tenant, Function<DataStore, T> action);
+
+    default <E> CompletableFuture<Optional<E>> findById(Class<E> entityClass, Object value) {
+        return findById(TenantId.CONTEXT, entityClass, value);
+    }
+
+    default <E> CompletableFuture<Optional<E>> findById(TenantId tenant, Class<E> entityClass, Object value) {
+        return submit(tenant, ds -> ds.findById(tenant, entityClass, value));
+    }
+
+    default <E> CompletableFuture<List<E>> find(Class<E> entityClass, Criteria criteria) {
+        return find(TenantId.CONTEXT, entityClass, criteria);
+    }
+
+    default <E> CompletableFuture<List<E>> find(TenantId tenant, Class<E> entityClass, Criteria criteria) {
+        return submit(tenant, ds -> ds.find(tenant, entityClass, criteria));
+    }
+
+    default <E> CompletableFuture<PagedResult<E>> find(Class<E> entityClass, Criteria criteria, PageRequest page, Sort sort) {
+        return find(TenantId.CONTEXT, entityClass, criteria, page, sort);
+    }
+
+    default <E> CompletableFuture<PagedResult<E>> find(TenantId tenant, Class<E> entityClass, Criteria criteria,
+                                                       PageRequest page, Sort sort) {
+        return submit(tenant, ds -> ds.find(tenant, entityClass, criteria, page, sort));
+    }
+
+    default <E> CompletableFuture<Optional<E>> get(Class<E> entityClass, Criteria criteria) {
+        return get(TenantId.CONTEXT, entityClass, criteria);
+    }
+
+    default <E> CompletableFuture<Optional<E>> get(TenantId tenant, Class<E> entityClass, Criteria criteria) {
+        return submit(tenant, ds -> ds.get(tenant, entityClass, criteria));
+    }
+
+    default <E> CompletableFuture<List<E>> findAll(Class<E> entityClass) {
+        return findAll(TenantId.CONTEXT, entityClass);
+    }
+
+    default <E> CompletableFuture<List<E>> findAll(TenantId tenant, Class<E> entityClass) {
+        return submit(tenant, ds -> ds.findAll(tenant, entityClass));
+    }
+
+    default <E> CompletableFuture<Long> count(Class<E> entityClass, Criteria criteria) {
+        return count(TenantId.CONTEXT, entityClass, criteria);
+    }
+
+    default <E> CompletableFuture<Long> count(TenantId tenant, Class<E> entityClass, Criteria criteria) {
+        return submit(tenant, ds -> ds.count(tenant, entityClass, criteria));
+    }
+
+    default <E> CompletableFuture<E> insert(E entity) {
+        return insert(TenantId.CONTEXT, entity);
+    }
+
+    default <E> CompletableFuture<E> insert(TenantId tenant, E entity) {
+        return submit(tenant, ds -> ds.insert(tenant, entity));
+    }
+
+    default <E> CompletableFuture<E> update(E entity) {
+        return update(TenantId.CONTEXT, entity);
+    }
+
+    default <E> CompletableFuture<E> update(TenantId tenant, E entity) {
+        return submit(tenant, ds -> ds.update(tenant, entity));
+    }
+
+    default <E> CompletableFuture<Integer> delete(E entity) {
+        return delete(TenantId.CONTEXT, entity);
+    }
+
+    default <E> CompletableFuture<Integer> delete(TenantId tenant, E entity) {
+        return submit(tenant, ds -> ds.delete(tenant, entity));
+    }
+
+}
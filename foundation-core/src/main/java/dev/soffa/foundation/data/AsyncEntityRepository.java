@@ -0,0 +1,54 @@
+package dev.soffa.foundation.data;
+
+import dev.soffa.foundation.model.PageRequest;
+import dev.soffa.foundation.model.PagedResult;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Non-blocking facade of {@link EntityRepository}, see {@link AsyncDataStore}.
+ */
+public interface AsyncEntityRepository<E> {
+
+    <T> CompletableFuture<T> submit(Function<EntityRepository<E>, T> action);
+
+    default CompletableFuture<Optional<E>> findById(Object value) {
+        return submit(repo -> repo.findById(value));
+    }
+
+    default CompletableFuture<List<E>> find(Criteria criteria) {
+        return submit(repo -> repo.find(criteria));
+    }
+
+    default CompletableFuture<PagedResult<E>> find(Criteria criteria, PageRequest page, Sort sort) {
+        return submit(repo -> repo.find(criteria, page, sort));
+    }
+
+    default CompletableFuture<Optional<E>> get(Criteria criteria) {
+        return submit(repo -> repo.get(criteria));
+    }
+
+    default CompletableFuture<List<E>> findAll() {
+        return submit(EntityRepository::findAll);
+    }
+
+    default CompletableFuture<Long> count(Criteria criteria) {
+        return submit(repo -> repo.count(criteria));
+    }
+
+    default CompletableFuture<E> insert(E entity) {
+        return submit(repo -> repo.insert(entity));
+    }
+
+    default CompletableFuture<E> update(E entity) {
+        return submit(repo -> repo.update(entity));
+    }
+
+    default CompletableFuture<Integer> delete(E entity) {
+        return submit(repo -> repo.delete(entity));
+    }
+
+}
@@ -1,18 +1,52 @@
 package dev.soffa.foundation.data;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.ImmutableSet;
 import dev.soffa.foundation.commons.TextUtil;
+import dev.soffa.foundation.error.TechnicalException;
+import lombok.AccessLevel;
 import lombok.Getter;
 import org.checkerframework.com.google.common.collect.ImmutableMap;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
+/**
+ * Filter of a query. Built from an equality map, a raw SQL condition or fluently:
+ * <pre>Criteria.create().eq("status", status).in("id", ids).orderBy("created", false).limit(20)</pre>
+ * Properties are converted to snake_case columns and every value is bound as a parameter.
+ */
 @Getter
 public final class Criteria {
 
+    public static final int IN_CHUNK_SIZE = 1000;
+    // WHERE clauses generated from filter maps, keyed by the set of filtered columns
+    private static final Cache<Set<String>, String> WHERE_CACHE = Caffeine.newBuilder().maximumSize(1000).build();
+    private static final Pattern COLUMN = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_.]*");
+    private static final String PARAM_PREFIX = "_p";
+
     private Map<String, Object> binding = ImmutableMap.of();
     private String where = "1=1";
+    /**
+     * Rendered ORDER BY list (without the keywords), null when unordered.
+     */
+    private String orderBy;
+    private Integer limit;
+
+    @Getter(AccessLevel.NONE)
+    private String base;
+    @Getter(AccessLevel.NONE)
+    private boolean ownBinding;
+    @Getter(AccessLevel.NONE)
+    private final List<String> conditions = new ArrayList<>();
+    @Getter(AccessLevel.NONE)
+    private final List<String> orders = new ArrayList<>();
 
     private Criteria() {
     }
@@ -20,6 +54,11 @@ public final class Criteria {
     private Criteria(String where, Map<String, Object> binding) {
         this.binding = binding;
         this.where = where;
+        this.base = where;
+    }
+
+    public static Criteria create() {
+        return new Criteria();
     }
 
     public static Criteria of(Map<String, Object> filter) {
@@ -30,13 +69,147 @@ public final class Criteria {
         return new Criteria(query, binding);
     }
 
+    public Criteria eq(String property, Object value) {
+        if (value == null) {
+            return isNull(property);
+        }
+        return compare(property, "=", value);
+    }
+
+    public Criteria ne(String property, Object value) {
+        if (value == null) {
+            return isNotNull(property);
+        }
+        return compare(property, "<>", value);
+    }
+
+    public Criteria gt(String property, Object value) {
+        return compare(property, ">", value);
+    }
+
+    public Criteria gte(String property, Object value) {
+        return compare(property, ">=", value);
+    }
+
+    public Criteria lt(String property, Object value) {
+        return compare(property, "<", value);
+    }
+
+    public Criteria lte(String property, Object value) {
+        return compare(property, "<=", value);
+    }
+
+    public Criteria like(String property, String pattern) {
+        return compare(property, "LIKE", pattern);
+    }
+
+    public Criteria between(String property, Object from, Object to) {
+        return and(TextUtil.format("%s BETWEEN :%s AND :%s", column(property), bind(from), bind(to)));
+    }
+
+    public Criteria isNull(String property) {
+        return and(column(property) + " IS NULL");
+    }
+
+    public Criteria isNotNull(String property) {
+        return and(column(property) + " IS NOT NULL");
+    }
+
+    /**
+     * Lists are bound in chunks of {@link #IN_CHUNK_SIZE} parameters, each chunk is padded (by repeating its last
+     * value) to the next power of two so that the number of distinct statements stays small.
+     */
+    public Criteria in(String property, Collection<?> values) {
+        if (values == null || values.isEmpty()) {
+            return and("1=0");
+        }
+        String column = column(property);
+        List<Object> items = new ArrayList<>(values);
+        List<String> chunks = new ArrayList<>();
+        for (int start = 0; start < items.size(); start += IN_CHUNK_SIZE) {
+            List<Object> chunk = items.subList(start, Math.min(items.size(), start + IN_CHUNK_SIZE));
+            int size = Math.min(IN_CHUNK_SIZE, Integer.highestOneBit(chunk.size() - 1) << 1);
+            List<String> params = new ArrayList<>(size);
+            for (int i = 0; i < Math.max(size, chunk.size()); i++) {
+                params.add(":" + bind(chunk.get(Math.min(i, chunk.size() - 1))));
+            }
+            chunks.add(TextUtil.format("%s IN (%s)", column, String.join(", ", params)));
+        }
+        return and(chunks.size() == 1 ? chunks.get(0) : "(" + String.join(" OR ", chunks) + ")");
+    }
+
+    public Criteria orderBy(String property) {
+        return orderBy(property, true);
+    }
+
+    public Criteria orderBy(String property, boolean ascending) {
+        orders.add(column(property) + (ascending ? " ASC" : " DESC"));
+        orderBy = String.join(", ", orders);
+        return this;
+    }
+
+    public Criteria limit(int limit) {
+        if (limit < 0) {
+            throw new TechnicalException("Invalid limit: %d", limit);
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    private Criteria compare(String property, String operator, Object value) {
+        return and(TextUtil.format("%s %s :%s", column(property), operator, bind(value)));
+    }
+
+    private Criteria and(String condition) {
+        conditions.add(condition);
+        List<String> parts = new ArrayList<>();
+        if (base != null && !"1=1".equals(base)) {
+            parts.add("(" + base + ")");
+        }
+        parts.addAll(conditions);
+        where = String.join(" AND ", parts);
+        return this;
+    }
+
+    private String bind(Object value) {
+        if (!ownBinding) {
+            // Never write into the map supplied by the caller
+            binding = new LinkedHashMap<>(binding);
+            ownBinding = true;
+        }
+        String name = PARAM_PREFIX + binding.size();
+        while (binding.containsKey(name)) {
+            name = name + "_";
+        }
+        binding.put(name, value);
+        return name;
+    }
+
+    private static String column(String property) {
+        String column = TextUtil.snakeCase(property);
+        if (column == null || !COLUMN.matcher(column).matches()) {
+            throw new TechnicalException("Invalid criteria property: %s", property);
+        }
+        return column;
+    }
 
     private static String buildWhere(Map<String, Object> filter) {
         if (filter.isEmpty()) {
             return "1=1";
         }
+        String cached = WHERE_CACHE.getIfPresent(filter.keySet());
+        if (cached != null) {
+            return cached;
+        }
+        Set<String> keys = ImmutableSet.copyOf(filter.keySet());
+        String where = renderWhere(keys);
+        WHERE_CACHE.put(keys, where);
+        return where;
+    }
+
+    private static String renderWhere(Set<String> keys) {
         List<String> where = new ArrayList<>();
-        for (String e : filter.keySet()) {
+        for (String e : keys) {
             where.add(TextUtil.format("%s = :%s", e, e));
         }
         return String.join(" AND ", where);
@@ -0,0 +1,21 @@
+package dev.soffa.foundation.data;
+
+import lombok.Value;
+
+import java.util.List;
+import java.util.Map;
+
+@Value
+public class CrossTenantResult<E> {
+
+    List<TenantRecord<E>> content;
+    /**
+     * Tenants whose query failed (or timed out), with the error message. Their rows are missing from the content.
+     */
+    Map<String, String> failures;
+
+    public boolean isPartial() {
+        return !failures.isEmpty();
+    }
+
+}
@@ -6,8 +6,11 @@ import dev.soffa.foundation.model.TenantId;
 import javax.sql.DataSource;
 import java.time.Duration;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 public interface DB {
 
@@ -23,6 +26,10 @@ public interface DB {
 
     String getTablesPrefix();
 
+    default DbConfig getConfig() {
+        return new DbConfig();
+    }
+
     default Set<String> getTenantList() {
         return new HashSet<>();
     }
@@ -31,10 +38,23 @@ public interface DB {
         throw new TodoException();
     }
 
+    /**
+     * Runs the consumer for every tenant in the background, failures are logged.
+     * Use {@link #withTenantsAsync(Function, Duration)} to wait for the results.
+     */
     default void withTenantsAsync(Consumer<String> consumer) {
         throw new TodoException();
     }
 
+    /**
+     * Runs the function for every tenant (with the tenant active) on a bounded executor.
+     * The future completes with the results by tenant, or with a TenantsException listing the tenants that failed
+     * or did not complete within the timeout.
+     */
+    default <R> CompletableFuture<Map<String, R>> withTenantsAsync(Function<String, R> function, Duration timeout) {
+        throw new TodoException();
+    }
+
     default void configureTenants() {
         // Implementation not required
     }
@@ -47,6 +67,17 @@ public interface DB {
         // Implementation not required
     }
 
+    default void unregister(String... names) {
+        // Implementation not required
+    }
+
+    /**
+     * Opens the datasources of the given tenants ahead of their first request.
+     */
+    default void warmUp(String... tenants) {
+        // Implementation not required
+    }
+
     default void withLock(String name, int atMostSeconds, int atLeastSeconds, Runnable runnable) {
         withLock(name, Duration.ofSeconds(atMostSeconds), Duration.ofSeconds(atLeastSeconds), runnable);
     }
@@ -61,4 +92,12 @@ public interface DB {
         throw new TodoException("Implement me");
     }
 
+    default AsyncDataStore newAsyncStore() {
+        throw new TodoException("Implement me");
+    }
+
+    default <E> AsyncEntityRepository<E> newAsyncEntityRepository(Class<E> entityClass) {
+        throw new TodoException("Implement me");
+    }
+
 }
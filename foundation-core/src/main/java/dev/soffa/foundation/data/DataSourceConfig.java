@@ -2,11 +2,17 @@ package dev.soffa.foundation.data;
 
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 public class DataSourceConfig {
 
     private String name;
     private String url;
+    /**
+     * Urls of the read replicas of this datasource, same format as the primary url.
+     */
+    private List<String> replicas;
     private String migration;
     private String tablesPrefix;
 
@@ -1,11 +1,16 @@
 package dev.soffa.foundation.data;
 
 
+import dev.soffa.foundation.model.PageRequest;
+import dev.soffa.foundation.model.PagedResult;
 import dev.soffa.foundation.model.TenantId;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public interface DataStore {
 
@@ -27,6 +32,29 @@ public interface DataStore {
 
     <E> long count(TenantId tenant, @NonNull Class<E> entityClass, @NonNull Criteria criteria);
 
+    default <E> boolean exists(@NonNull Class<E> entityClass, @NonNull Criteria criteria) {
+        return exists(TenantId.CONTEXT, entityClass, criteria);
+    }
+
+    /**
+     * Stops at the first matching row, unlike {@link #count(TenantId, Class, Criteria)}.
+     */
+    default <E> boolean exists(TenantId tenant, @NonNull Class<E> entityClass, @NonNull Criteria criteria) {
+        return count(tenant, entityClass, criteria) > 0;
+    }
+
+    default <E> long estimateCount(@NonNull Class<E> entityClass, Criteria criteria) {
+        return estimateCount(TenantId.CONTEXT, entityClass, criteria);
+    }
+
+    /**
+     * Approximate number of matching rows taken from the planner statistics (Postgres), for totals that need not be
+     * exact. Other databases (or tables never analyzed without criteria) run an exact count.
+     */
+    default <E> long estimateCount(TenantId tenant, @NonNull Class<E> entityClass, Criteria criteria) {
+        return criteria == null ? count(tenant, entityClass) : count(tenant, entityClass, criteria);
+    }
+
     default <E> int delete(@NonNull Class<E> entityClass, @NonNull Criteria criteria) {
         return delete(TenantId.CONTEXT, entityClass, criteria);
     }
@@ -45,18 +73,88 @@ public interface DataStore {
 
     <E> E update(TenantId tenant, E entity);
 
+    default <E> E update(E entity, String... fields) {
+        return update(TenantId.CONTEXT, entity, fields);
+    }
+
+    /**
+     * Writes the given properties only, other columns of the row are left untouched.
+     */
+    <E> E update(TenantId tenant, E entity, String... fields);
+
+    default <E> E upsert(E entity, String... conflictProperties) {
+        return upsert(TenantId.CONTEXT, entity, conflictProperties);
+    }
+
+    /**
+     * Inserts the entity or updates the row it conflicts with in a single statement.
+     *
+     * @param conflictProperties properties of the unique key to match on, the id when empty
+     */
+    <E> E upsert(TenantId tenant, E entity, String... conflictProperties);
+
     default <E> int delete(E entity) {
         return delete(TenantId.CONTEXT, entity);
     }
 
     <E> int delete(TenantId tenant, E entity);
 
+    default <E> int[] insertAll(Collection<E> entities) {
+        return insertAll(TenantId.CONTEXT, entities);
+    }
+
+    <E> int[] insertAll(TenantId tenant, Collection<E> entities);
+
+    default <E> int[] updateAll(Collection<E> entities) {
+        return updateAll(TenantId.CONTEXT, entities);
+    }
+
+    <E> int[] updateAll(TenantId tenant, Collection<E> entities);
+
+    default <E> int[] upsertAll(Collection<E> entities, String... conflictProperties) {
+        return upsertAll(TenantId.CONTEXT, entities, conflictProperties);
+    }
+
+    <E> int[] upsertAll(TenantId tenant, Collection<E> entities, String... conflictProperties);
+
+    default <E> int[] deleteAll(Collection<E> entities) {
+        return deleteAll(TenantId.CONTEXT, entities);
+    }
+
+    <E> int[] deleteAll(TenantId tenant, Collection<E> entities);
+
     default <E> List<E> find(Class<E> entityClass, Criteria criteria) {
         return find(TenantId.CONTEXT, entityClass, criteria);
     }
 
     <E> List<E> find(TenantId tenant, Class<E> entityClass, Criteria criteria);
 
+    default <E, P> List<P> find(Class<E> entityClass, Class<P> projection, Criteria criteria) {
+        return find(TenantId.CONTEXT, entityClass, projection, criteria);
+    }
+
+    /**
+     * Selects only the columns matching the fields of the projection class (snake_case, like entity properties).
+     */
+    <E, P> List<P> find(TenantId tenant, Class<E> entityClass, Class<P> projection, Criteria criteria);
+
+    default <E> PagedResult<E> find(Class<E> entityClass, Criteria criteria, PageRequest page, Sort sort) {
+        return find(TenantId.CONTEXT, entityClass, criteria, page, sort);
+    }
+
+    /**
+     * Loads a single page, sorted by the given property (id when null) then by id. When the page carries a cursor
+     * (see {@link PagedResult#getNext()}) the page is fetched with a keyset seek on the sort value and id.
+     * On large tables totalElements is estimated instead of running an exact count.
+     */
+    <E> PagedResult<E> find(TenantId tenant, Class<E> entityClass, Criteria criteria, PageRequest page, Sort sort);
+
+    /**
+     * Runs the query against every tenant in parallel and merges the rows sorted by the given property (id when
+     * null), keeping the first {@code limit} ones. A failing tenant is reported in the result instead of failing it.
+     */
+    <E> CrossTenantResult<E> findAcrossTenants(Class<E> entityClass, Criteria criteria, Sort sort, int limit);
+
     default <E> Optional<E> get(Class<E> entityClass, Criteria criteria) {
         return get(TenantId.CONTEXT, entityClass, criteria);
     }
@@ -68,4 +166,24 @@ public interface DataStore {
     }
 
     <E> List<E> findAll(TenantId tenant, Class<E> entityClass);
+
+    default <E> Stream<E> stream(Class<E> entityClass, Criteria criteria) {
+        return stream(TenantId.CONTEXT, entityClass, criteria);
+    }
+
+    /**
+     * Streams matching rows through a database cursor, rows are fetched and mapped incrementally.
+     * The returned stream holds a connection until it is closed, always use it in a try-with-resources block.
+     */
+    <E> Stream<E> stream(TenantId tenant, Class<E> entityClass, Criteria criteria);
+
+    default <E> void forEach(Class<E> entityClass, Criteria criteria, Consumer<E> consumer) {
+        forEach(TenantId.CONTEXT, entityClass, criteria, consumer);
+    }
+
+    default <E> void forEach(TenantId tenant, Class<E> entityClass, Criteria criteria, Consumer<E> consumer) {
+        try (Stream<E> stream = stream(tenant, entityClass, criteria)) {
+            stream.forEach(consumer);
+        }
+    }
 }
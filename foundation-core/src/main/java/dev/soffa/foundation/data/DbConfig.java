@@ -2,13 +2,132 @@ package dev.soffa.foundation.data;
 
 import lombok.Data;
 
+import java.util.List;
 import java.util.Map;
 
 @Data
 public class DbConfig {
 
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_FETCH_SIZE = 500;
+    public static final int DEFAULT_MAX_PAGE_OFFSET = 1000;
+    public static final long DEFAULT_MAX_EXACT_COUNT = 100_000;
+    public static final String ROUND_ROBIN = "round-robin";
+    public static final String LEAST_BUSY = "least-busy";
+    public static final String DEDICATED_POOLS = "dedicated";
+    public static final String SHARED_POOLS = "shared";
+    public static final String OVERFLOW_BLOCK = "block";
+    public static final String OVERFLOW_DROP = "drop";
+    public static final String OVERFLOW_SPILL = "spill";
+    public static final String PARTITION_NONE = "none";
+    public static final String PARTITION_DAILY = "daily";
+    public static final String PARTITION_MONTHLY = "monthly";
+
     private String tablesPrefix;
     private String tenantListQuery;
     private Map<String, DataSourceConfig> datasources;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    /**
+     * Pages beyond this offset select the ids first (deferred join) before loading the rows.
+     */
+    private int maxPageOffset = DEFAULT_MAX_PAGE_OFFSET;
+    /**
+     * Above this (estimated) number of rows, paged queries skip the exact COUNT(*).
+     */
+    private long maxExactCount = DEFAULT_MAX_EXACT_COUNT;
+    /**
+     * Replica selection: round-robin or least-busy (fewest active connections).
+     */
+    private String replicaRouting = ROUND_ROBIN;
+    /**
+     * Replicas lagging behind the primary by more than this (in ms) are taken out of rotation.
+     */
+    private long replicaMaxLag = 5_000;
+    private long replicaCheckInterval = 10_000;
+    /**
+     * dedicated: one pool per datasource. shared: datasources that only differ by schema share one pool per server.
+     */
+    private String pooling = DEDICATED_POOLS;
+    /**
+     * Size of each shared pool, i.e. the connection budget of the service on a server.
+     */
+    private int sharedPoolSize = 20;
+    /**
+     * Maximum number of connections of a shared pool a single datasource may hold at once.
+     */
+    private int maxTenantConnections = 5;
+    /**
+     * Tenant datasources are created on first use and closed once idle instead of being opened at startup.
+     */
+    private boolean lazyTenants;
+    private long tenantIdleTimeout = 600_000;
+    /**
+     * Soft cap on the number of open tenant datasources, the least recently used idle ones are closed first.
+     */
+    private int maxOpenTenants;
+    /**
+     * Grows dedicated pools when threads wait for a connection and shrinks them when mostly unused.
+     */
+    private boolean autosizePools;
+    private int minPoolSize = 2;
+    private int maxPoolSize = 20;
+    /**
+     * Tenants opened (and their pools filled) as soon as the service starts, even in lazy mode.
+     */
+    private List<String> warmTenants;
+    /**
+     * Number of datasources migrated concurrently at startup.
+     */
+    private int migrationThreads = 4;
+    /**
+     * Number of tenants processed concurrently by withTenantsAsync.
+     */
+    private int tenantParallelism = 8;
+    private long tenantTaskTimeout = 600_000;
+    /**
+     * Pending async store calls per datasource. Beyond it, calls run on the caller thread (backpressure).
+     */
+    private int asyncQueueSize = 1000;
+    /**
+     * Pending jobs claimed per round trip, and worker threads per operation.
+     */
+    private int jobBatchSize = 100;
+    private int jobWorkers = 4;
+    /**
+     * Claimed jobs not acknowledged within this delay (in ms) can be claimed by another node.
+     */
+    private long jobLease = 300_000;
+    /**
+     * Retry delay of a failed job (in ms), doubled on every failure up to jobMaxBackoff.
+     */
+    private long jobBackoff = 1_000;
+    private long jobMaxBackoff = 3_600_000;
+    /**
+     * Journal rows are written by a background writer, in batches of journalBatchSize or every journalFlushInterval
+     * ms. When its buffer is full, the row is handled according to journalOverflow: block (wait for space), drop or
+     * spill (appended to journalSpillFile, journal-spill-&lt;application&gt;.jsonl in the temp directory by default).
+     * Rows the database fails to write are retried, then spilled whatever the overflow policy. Spilled rows are
+     * written at the next startup and then every minute.
+     */
+    private boolean journalAsync = true;
+    private int journalBufferSize = 10_000;
+    private int journalBatchSize = 500;
+    private long journalFlushInterval = 200;
+    private String journalOverflow = OVERFLOW_BLOCK;
+    private String journalSpillFile;
+    private long journalDrainTimeout = 10_000;
+    /**
+     * Postgres only: range partitioning of the journal on created (none, daily or monthly). Upcoming partitions are
+     * created ahead of time and partitions older than journalRetention (in days, 0 to keep everything) are dropped.
+     */
+    private String journalPartitioning = PARTITION_NONE;
+    private int journalPartitionsAhead = 3;
+    private int journalRetention;
+    private long journalMaintenanceInterval = 3_600_000;
+
+    public boolean isJournalPartitioned() {
+        return journalPartitioning != null && !PARTITION_NONE.equalsIgnoreCase(journalPartitioning);
+    }
 
 }
@@ -1,8 +1,14 @@
 package dev.soffa.foundation.data;
 
+import dev.soffa.foundation.model.PageRequest;
+import dev.soffa.foundation.model.PagedResult;
+
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @SuppressWarnings("UnusedReturnValue")
 public interface EntityRepository<E> {
@@ -23,6 +29,24 @@ public interface EntityRepository<E> {
         return find(Criteria.of(filter));
     }
 
+    <P> List<P> find(Class<P> projection, Criteria criteria);
+
+    default PagedResult<E> find(Criteria criteria, PageRequest page) {
+        return find(criteria, page, null);
+    }
+
+    PagedResult<E> find(Criteria criteria, PageRequest page, Sort sort);
+
+    CrossTenantResult<E> findAcrossTenants(Criteria criteria, Sort sort, int limit);
+
+    Stream<E> stream(Criteria criteria);
+
+    default void forEach(Criteria criteria, Consumer<E> consumer) {
+        try (Stream<E> stream = stream(criteria)) {
+            stream.forEach(consumer);
+        }
+    }
+
     Optional<E> get(Criteria criteria);
 
     default Optional<E> get(Map<String, Object> filter) {
@@ -35,8 +59,20 @@ public interface EntityRepository<E> {
 
     E update(E entity);
 
+    E update(E entity, String... fields);
+
+    E upsert(E entity, String... conflictProperties);
+
     int delete(E entity);
 
+    int[] insertAll(Collection<E> entities);
+
+    int[] updateAll(Collection<E> entities);
+
+    int[] upsertAll(Collection<E> entities, String... conflictProperties);
+
+    int[] deleteAll(Collection<E> entities);
+
     default int delete(Map<String, Object> filter) {
         return delete(Criteria.of(filter));
     }
@@ -51,4 +87,12 @@ public interface EntityRepository<E> {
         return count(criteria) > 0;
     }
 
+    default long estimateCount() {
+        return estimateCount(null);
+    }
+
+    default long estimateCount(Criteria criteria) {
+        return criteria == null ? count() : count(criteria);
+    }
+
 }
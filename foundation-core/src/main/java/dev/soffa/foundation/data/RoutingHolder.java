@@ -0,0 +1,78 @@
+package dev.soffa.foundation.data;
+
+import java.util.function.Supplier;
+
+/**
+ * Per-thread read routing state: whether the current work is read-only and whether a write already happened, in
+ * which case later reads stay on the primary so that they see it.
+ */
+@SuppressWarnings("PMD.ClassNamingConventions")
+public final class RoutingHolder {
+
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> PINNED = new ThreadLocal<>();
+
+    private RoutingHolder() {
+    }
+
+    public static boolean isReadOnly() {
+        return Boolean.TRUE.equals(READ_ONLY.get());
+    }
+
+    public static boolean isPinned() {
+        return Boolean.TRUE.equals(PINNED.get());
+    }
+
+    public static void pinPrimary() {
+        PINNED.set(true);
+    }
+
+    public static void unpin() {
+        PINNED.remove();
+    }
+
+    /**
+     * Runs a unit of work (tenant task, job, message): it starts unpinned and a write inside it only pins the reads
+     * of that unit, the pin of the caller is restored once it completes.
+     */
+    public static void unitOfWork(Runnable runnable) {
+        unitOfWork(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public static <T> T unitOfWork(Supplier<T> supplier) {
+        Boolean current = PINNED.get();
+        PINNED.remove();
+        try {
+            return supplier.get();
+        } finally {
+            if (current == null) {
+                PINNED.remove();
+            } else {
+                PINNED.set(current);
+            }
+        }
+    }
+
+    public static <T> T readOnly(Supplier<T> supplier) {
+        Boolean current = READ_ONLY.get();
+        READ_ONLY.set(true);
+        try {
+            return supplier.get();
+        } finally {
+            if (current == null) {
+                READ_ONLY.remove();
+            } else {
+                READ_ONLY.set(current);
+            }
+        }
+    }
+
+    public static void clear() {
+        READ_ONLY.remove();
+        PINNED.remove();
+    }
+
+}
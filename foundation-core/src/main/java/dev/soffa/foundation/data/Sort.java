@@ -0,0 +1,19 @@
+package dev.soffa.foundation.data;
+
+import lombok.Value;
+
+@Value
+public class Sort {
+
+    String property;
+    boolean ascending;
+
+    public static Sort asc(String property) {
+        return new Sort(property, true);
+    }
+
+    public static Sort desc(String property) {
+        return new Sort(property, false);
+    }
+
+}
@@ -0,0 +1,14 @@
+package dev.soffa.foundation.data;
+
+import lombok.Value;
+
+/**
+ * A row loaded by a cross-tenant query, tagged with the tenant it belongs to.
+ */
+@Value
+public class TenantRecord<E> {
+
+    String tenant;
+    E entity;
+
+}
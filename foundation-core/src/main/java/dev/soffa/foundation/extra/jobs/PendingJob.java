@@ -22,6 +22,9 @@ public class PendingJob implements EntityModel {
     private Date created;
     private String lastError;
     private int errorsCount;
+    private Date nextRunAt;
+    private Date lockedUntil;
+    private String lockedBy;
 
     public void failed(String message) {
         lastError = message;
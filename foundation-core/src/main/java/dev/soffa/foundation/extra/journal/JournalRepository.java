@@ -1,17 +1,35 @@
 package dev.soffa.foundation.extra.journal;
 
 import dev.soffa.foundation.context.Context;
+import dev.soffa.foundation.data.Criteria;
 import dev.soffa.foundation.data.EntityRepository;
 import dev.soffa.foundation.error.ErrorUtil;
 import lombok.SneakyThrows;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
+import java.util.Date;
+import java.util.List;
 import java.util.function.Supplier;
 
 public interface JournalRepository extends EntityRepository<Journal> {
 
+    /**
+     * Writes a journal row. Implementations may write it asynchronously, the caller context is captured here.
+     */
+    default void append(Journal journal) {
+        insert(journal);
+    }
+
+    /**
+     * Entries of a subject, most recent first. The range on created restricts a partitioned journal to the partitions
+     * it covers.
+     */
+    default List<Journal> findBySubject(@NonNull String subject, @NonNull Date from, @NonNull Date to) {
+        return find(Criteria.create().eq("subject", subject).between("created", from, to).orderBy("created", false));
+    }
+
     default void log(Context context, @NonNull String kind, @NonNull String subject, @NonNull String event) {
-        insert(
+        append(
             Journal.builder()
                 .event(event)
                 .subject(subject)
@@ -28,7 +46,7 @@ public interface JournalRepository extends EntityRepository<Journal> {
             log(context, kind, subject, event);
             return result;
         } catch (Exception e) {
-            insert(
+            append(
                 Journal.builder()
                     .event(event)
                     .subject(subject)
@@ -27,6 +27,14 @@ public interface PubSubClient {
 
     void setDefaultBroadcast(String value);
 
+    /**
+     * Subscribes every running instance to the subject (no queue group, no persistence),
+     * messages sent with {@link #publish(String, Message)} are delivered to all of them.
+     */
+    default void listen(@NonNull String subject, MessageHandler messageHandler) {
+        subscribe(subject, false, messageHandler);
+    }
+
     /*
     @SuppressWarnings("unchecked")
     default <T> T createClient(Class<T> clientInterface, String subject) {
@@ -15,6 +15,20 @@ public interface CoreMetrics {
 
     String JOBS = "app_jobs";
 
+    String DB_CACHE_HIT = "app_db_cache_hit";
+    String DB_CACHE_MISS = "app_db_cache_miss";
+    String DB_CACHE_EVICTION = "app_db_cache_eviction";
+    String DB_MIGRATION = "app_db_migration";
+    String DB_MIGRATION_SKIPPED = "app_db_migration_skipped";
+    String DB_TENANT_TASK = "app_db_tenant_task";
+    String PENDING_JOBS = "app_pending_jobs";
+    String PENDING_JOBS_DEPTH = "app_pending_jobs_depth";
+    String PENDING_JOBS_AGE = "app_pending_jobs_age";
+    String JOURNAL_WRITE = "app_journal_write";
+    String JOURNAL_BUFFER = "app_journal_buffer";
+    String JOURNAL_DROPPED = "app_journal_dropped";
+    String JOURNAL_SPILLED = "app_journal_spilled";
+
 
     String HTTP_REQUEST = "app_http_request";
 
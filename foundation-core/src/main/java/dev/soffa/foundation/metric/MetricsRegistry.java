@@ -54,6 +54,13 @@ public interface MetricsRegistry {
 
     void increment(String counter, double amount, Map<String, Object> tags);
 
+    /**
+     * Records the current value of a gauge (e.g. the size of a queue).
+     */
+    default void gauge(String name, double value, Map<String, Object> tags) {
+        // Gauges are optional
+    }
+
     double counter(String name);
 
     double globalCounter(String name);
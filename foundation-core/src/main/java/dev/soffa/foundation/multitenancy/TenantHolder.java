@@ -2,6 +2,7 @@ package dev.soffa.foundation.multitenancy;
 
 import dev.soffa.foundation.commons.Logger;
 import dev.soffa.foundation.commons.TextUtil;
+import dev.soffa.foundation.data.RoutingHolder;
 import dev.soffa.foundation.model.TenantId;
 import lombok.SneakyThrows;
 
@@ -94,7 +95,8 @@ public final class TenantHolder {
         }
         try {
             set(tenantId);
-            return supplier.get();
+            // Reads of the other tenant must not stay on the primary because of a write of this one
+            return RoutingHolder.unitOfWork(supplier);
         } finally {
             if (TextUtil.isNotEmpty(current)) {
                 LOG.trace("Tenant restored %s --> %s", tenantId, current);
@@ -0,0 +1,56 @@
+package dev.soffa.foundation;
+
+import com.google.common.collect.ImmutableMap;
+import dev.soffa.foundation.data.Criteria;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CriteriaTest {
+
+    @Test
+    public void testBuilder() {
+        Criteria criteria = Criteria.create()
+            .eq("accountId", "acc_1")
+            .between("amount", 10, 20)
+            .isNull("deletedAt")
+            .orderBy("createdAt", false)
+            .limit(5);
+
+        assertEquals("account_id = :_p0 AND amount BETWEEN :_p1 AND :_p2 AND deleted_at IS NULL", criteria.getWhere());
+        assertEquals("created_at DESC", criteria.getOrderBy());
+        assertEquals(Integer.valueOf(5), criteria.getLimit());
+        assertEquals("acc_1", criteria.getBinding().get("_p0"));
+        assertEquals(20, criteria.getBinding().get("_p2"));
+    }
+
+    @Test
+    public void testIn() {
+        Criteria criteria = Criteria.create().in("id", Arrays.asList("a", "b", "c"));
+        // Padded to the next power of two
+        assertEquals("id IN (:_p0, :_p1, :_p2, :_p3)", criteria.getWhere());
+        assertEquals("c", criteria.getBinding().get("_p3"));
+
+        criteria = Criteria.create().in("id", IntStream.range(0, 1500).boxed().collect(Collectors.toList()));
+        assertEquals(2, criteria.getWhere().split(" OR ").length);
+
+        assertEquals("1=0", Criteria.create().in("id", Arrays.asList()).getWhere());
+    }
+
+    @Test
+    public void testCombineWithFilter() {
+        ImmutableMap<String, Object> filter = ImmutableMap.of("status", "active");
+        Criteria criteria = Criteria.of(filter).gt("score", 3);
+        assertEquals("(status = :status) AND score > :_p1", criteria.getWhere());
+        assertEquals(1, filter.size());
+        assertNull(criteria.getOrderBy());
+        assertThrows(Exception.class, () -> Criteria.create().eq("id; DROP TABLE", 1));
+    }
+
+}
@@ -0,0 +1,68 @@
+package dev.soffa.foundation.data;
+
+import dev.soffa.foundation.context.Context;
+import dev.soffa.foundation.context.ContextHolder;
+import dev.soffa.foundation.data.jdbi.JdbiProvider;
+import dev.soffa.foundation.model.TenantId;
+import dev.soffa.foundation.multitenancy.TenantHolder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Runs store calls on the executor of the tenant datasource. Pool threads are reused across tenants and requests, so
+ * the tenant, context and routing state of the caller are set explicitly around each call and restored afterwards
+ * (the call may also run on the caller thread when the executor queue is full).
+ */
+final class AsyncCalls {
+
+    private AsyncCalls() {
+    }
+
+    static <T> CompletableFuture<T> submit(DB db, TenantId tenant, Supplier<T> action) {
+        Executor executor;
+        try {
+            executor = db instanceof JdbiProvider ? ((JdbiProvider) db).getExecutor(tenant) : ForkJoinPool.commonPool();
+        } catch (Exception e) {
+            return failed(e);
+        }
+        final String activeTenant = TenantHolder.get().orElse(null);
+        final Context context = ContextHolder.get().orElse(null);
+        final boolean readOnly = RoutingHolder.isReadOnly();
+        final boolean pinned = RoutingHolder.isPinned();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                String previousTenant = TenantHolder.get().orElse(null);
+                Context previousContext = ContextHolder.get().orElse(null);
+                boolean wasPinned = RoutingHolder.isPinned();
+                TenantHolder.set(activeTenant);
+                ContextHolder.set(context);
+                if (pinned) {
+                    RoutingHolder.pinPrimary();
+                }
+                try {
+                    return readOnly ? RoutingHolder.readOnly(action) : action.get();
+                } finally {
+                    if (!wasPinned) {
+                        RoutingHolder.unpin();
+                    }
+                    ContextHolder.set(previousContext);
+                    TenantHolder.set(previousTenant);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            // The datasource was closed in the meantime
+            return failed(e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Exception e) {
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+
+}
@@ -3,9 +3,11 @@ package dev.soffa.foundation.data;
 import dev.soffa.foundation.annotation.Store;
 import dev.soffa.foundation.annotation.StoreId;
 import dev.soffa.foundation.commons.ClassUtil;
+import dev.soffa.foundation.commons.Logger;
 import dev.soffa.foundation.commons.TextUtil;
 import dev.soffa.foundation.error.ConfigurationException;
 import dev.soffa.foundation.error.TechnicalException;
+import lombok.AccessLevel;
 import lombok.Getter;
 import org.apache.commons.lang3.reflect.FieldUtils;
 
@@ -15,34 +17,85 @@ import javax.persistence.Transient;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Getter
 public class EntityInfo<T> {
 
-    private static final Map<String, EntityInfo<?>> REGISTRY = new HashMap<>();
-    private static final Map<String, String> CUSTOM_TABLES = new HashMap<>();
+    private static final Logger LOG = Logger.get(EntityInfo.class);
+    private static final Map<String, EntityInfo<?>> REGISTRY = new ConcurrentHashMap<>();
+    private static final Map<String, String> CUSTOM_TABLES = new ConcurrentHashMap<>();
+    // Creation date (see EntityModel), never overwritten by an upsert
+    private static final String CREATED = "created";
     private final Class<T> entityClass;
-    private final Map<String, String> propertiesToColumnsMapping = new HashMap<>();
-    private final List<String> columnsEscaped = new ArrayList<>();
-    private final List<String> columns = new ArrayList<>();
-    private final List<String> valuesPlaceholder = new ArrayList<>();
-    private final Map<String, Class<?>> propertiesTypes = new HashMap<>();
-    private final Set<String> customTypes = new HashSet<>();
+    private final String tablePrefix;
+    // Collections are made read-only once the metadata is complete (see afterPropertiesSet)
+    private Map<String, String> propertiesToColumnsMapping = new HashMap<>();
+    private List<String> columnsEscaped = new ArrayList<>();
+    private List<String> columns = new ArrayList<>();
+    private List<String> valuesPlaceholder = new ArrayList<>();
+    private Map<String, Class<?>> propertiesTypes = new HashMap<>();
+    private Set<String> customTypes = new HashSet<>();
     private String tableName;
+    private String rawTableName;
     private String idProperty;
     private List<String> updatePairs;
+    private String insertSql;
+    private String updateSql;
+    private String deleteSql;
+    private String selectSql;
+    private String selectByIdSql;
+    private String countSql;
+    private String existsSql;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, String> upsertStatements = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE)
+    private final Map<String, String> partialUpdateStatements = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE)
+    private final Map<Class<?>, EntityInfo<?>> projections = new ConcurrentHashMap<>();
 
     public EntityInfo(Class<T> entityClass, String tablePrefix) {
         this.entityClass = entityClass;
+        this.tablePrefix = tablePrefix;
 
         tableName = getTableName(entityClass);
         if (TextUtil.isNotEmpty(tablePrefix)) {
             tableName = tablePrefix + tableName;
         }
+        rawTableName = tableName;
         tableName = escapeTableName(tableName);
     }
 
+    private EntityInfo(Class<T> projectionClass, EntityInfo<?> source) {
+        this.entityClass = projectionClass;
+        this.tablePrefix = source.tablePrefix;
+        this.tableName = source.tableName;
+        this.rawTableName = source.rawTableName;
+    }
+
     public static <T> void register(Class<T> entityClass, String tablePrefix) {
+        REGISTRY.put(entityClass.getName(), build(entityClass, tablePrefix));
+    }
+
+    /**
+     * Eagerly indexes the given entities, classes that can't be indexed are left to lazy registration.
+     *
+     * @return the number of indexed entities
+     */
+    public static int registerAll(Collection<Class<?>> entityClasses, String tablePrefix) {
+        int count = 0;
+        for (Class<?> entityClass : entityClasses) {
+            try {
+                register(entityClass, tablePrefix);
+                count++;
+            } catch (TechnicalException | ConfigurationException e) {
+                LOG.warn("Entity %s was not indexed: %s", entityClass.getName(), e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    private static <T> EntityInfo<T> build(Class<T> entityClass, String tablePrefix) {
         EntityInfo<T> info = new EntityInfo<>(entityClass, tablePrefix);
         // Support
         Field[] fields = FieldUtils.getAllFields(entityClass);
@@ -73,8 +126,37 @@ public class EntityInfo<T> {
         }
 
         info.afterPropertiesSet();
+        return info;
+    }
 
-        REGISTRY.put(entityClass.getName(), info);
+    /**
+     * Metadata of a read-only view of this entity: the projection fields are mapped to columns with the same
+     * naming rules and only those columns are selected (see {@link #getSelectSql()}).
+     */
+    @SuppressWarnings("unchecked")
+    public <P> EntityInfo<P> getProjection(Class<P> projectionClass) {
+        return (EntityInfo<P>) projections.computeIfAbsent(projectionClass, type -> {
+            EntityInfo<?> view = new EntityInfo<>(type, this);
+            for (Field field : FieldUtils.getAllFields(type)) {
+                int modifier = field.getModifiers();
+                boolean ignore = field.getAnnotation(Transient.class) != null || Modifier.isTransient(modifier)
+                    || Modifier.isStatic(modifier) || Modifier.isAbstract(modifier);
+                if (ignore) {
+                    continue;
+                }
+                if (!propertiesToColumnsMapping.containsValue(TextUtil.snakeCase(field.getName()))) {
+                    throw new TechnicalException("Projection %s: no column found in %s for property %s",
+                        type.getName(), entityClass.getName(), field.getName());
+                }
+                view.addProperty(field.getName(), field.getType());
+            }
+            if (view.columns.isEmpty()) {
+                throw new TechnicalException("Projection %s has no property", type.getName());
+            }
+            view.freeze();
+            view.selectSql = TextUtil.format("SELECT %s FROM %s", String.join(", ", view.columnsEscaped), tableName);
+            return view;
+        });
     }
 
     // -----------------------------------------------------------------------------------------------------------------
@@ -86,15 +168,19 @@ public class EntityInfo<T> {
 
     @SuppressWarnings("unchecked")
     public static <T> EntityInfo<T> get(Class<T> entityClass, String tablePrefix) {
-        String keyName = entityClass.getName();
-        if (!REGISTRY.containsKey(keyName)) {
-            register(entityClass, tablePrefix);
+        EntityInfo<?> info = REGISTRY.get(entityClass.getName());
+        if (info == null) {
+            info = REGISTRY.computeIfAbsent(entityClass.getName(), key -> build(entityClass, tablePrefix));
         }
-        return (EntityInfo<T>) REGISTRY.get(keyName);
+        return (EntityInfo<T>) info;
     }
 
     public static void registerTable(Class<?> clazz, String tableName) {
-        CUSTOM_TABLES.put(clazz.getName(), tableName);
+        String previous = CUSTOM_TABLES.put(clazz.getName(), tableName);
+        EntityInfo<?> info = REGISTRY.get(clazz.getName());
+        if (info != null && !Objects.equals(previous, tableName)) {
+            register(clazz, info.tablePrefix);
+        }
     }
 
     private static String escapeColumnName(String value) {
@@ -129,6 +215,122 @@ public class EntityInfo<T> {
     public String getIdColumn() {
         return propertiesToColumnsMapping.get(idProperty);
     }
+
+    /**
+     * @return the column of the given property (or column) name, null if the entity has no such property
+     */
+    public String findColumn(String name) {
+        if (propertiesToColumnsMapping.containsKey(name)) {
+            return propertiesToColumnsMapping.get(name);
+        }
+        return propertiesToColumnsMapping.containsValue(name) ? name : null;
+    }
+
+    /**
+     * @return the property mapped to the given property or column name, null if none
+     */
+    public String findProperty(String name) {
+        if (propertiesToColumnsMapping.containsKey(name)) {
+            return name;
+        }
+        for (Map.Entry<String, String> e : propertiesToColumnsMapping.entrySet()) {
+            if (e.getValue().equals(name)) {
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the UPDATE statement (built once per properties set) writing the given properties only
+     */
+    public String getUpdateSql(String... properties) {
+        if (properties == null || properties.length == 0) {
+            return updateSql;
+        }
+        return partialUpdateStatements.computeIfAbsent(String.join(",", properties), key -> {
+            List<String> pairs = new ArrayList<>();
+            for (String property : properties) {
+                String column = propertiesToColumnsMapping.get(property);
+                if (column == null) {
+                    throw new TechnicalException("Unknown property %s for %s", property, entityClass.getName());
+                }
+                if (!column.equals(getIdColumn())) {
+                    pairs.add(TextUtil.format("%s = :%s", escapeColumnName(column), property));
+                }
+            }
+            if (pairs.isEmpty()) {
+                throw new TechnicalException("No property to update for %s", entityClass.getName());
+            }
+            return TextUtil.format("UPDATE %s SET %s WHERE %s = :%s", tableName,
+                String.join(", ", pairs), getIdColumn(), idProperty);
+        });
+    }
+
+    /**
+     * Builds (once per conflict target) the statement that inserts the entity or updates the row matching the given
+     * properties (the id when none), bound with bindBean: INSERT ... ON CONFLICT on Postgres, a standard MERGE
+     * elsewhere (H2). The id and the creation date of an existing row are kept. The statement always updates the
+     * matching row, so that its id is returned as a generated key.
+     */
+    public String getUpsertSql(boolean postgres, String... conflictProperties) {
+        List<String> conflict = getConflictProperties(conflictProperties);
+        return upsertStatements.computeIfAbsent((postgres ? "insert:" : "merge:") + String.join(",", conflict), k -> {
+            List<String> properties = getUpsertProperties(conflict);
+            if (properties.isEmpty()) {
+                properties = conflict.subList(0, 1);
+            }
+            List<String> assignments = new ArrayList<>();
+            for (String property : properties) {
+                String column = escapeColumnName(propertiesToColumnsMapping.get(property));
+                assignments.add(postgres
+                    ? TextUtil.format("%s = EXCLUDED.%s", column, column)
+                    : TextUtil.format("%s = :%s", column, property));
+            }
+            List<String> target = new ArrayList<>();
+            for (String property : conflict) {
+                String column = escapeColumnName(propertiesToColumnsMapping.get(property));
+                target.add(postgres ? column : TextUtil.format("t.%s = :%s", column, property));
+            }
+            if (postgres) {
+                return TextUtil.format("%s ON CONFLICT (%s) DO UPDATE SET %s", insertSql,
+                    String.join(", ", target), String.join(", ", assignments));
+            }
+            // The entity is bound directly rather than through the source rows, whose parameters would be untyped
+            return TextUtil.format("MERGE INTO %s t USING (VALUES (1)) s ON (%s) WHEN MATCHED THEN UPDATE SET %s "
+                    + "WHEN NOT MATCHED THEN INSERT (%s) VALUES (%s)", tableName, String.join(" AND ", target),
+                String.join(", ", assignments), String.join(", ", columnsEscaped), String.join(", ", valuesPlaceholder));
+        });
+    }
+
+    private List<String> getConflictProperties(String... conflictProperties) {
+        if (conflictProperties == null || conflictProperties.length == 0) {
+            return Collections.singletonList(idProperty);
+        }
+        List<String> properties = new ArrayList<>();
+        for (String name : conflictProperties) {
+            String property = findProperty(name);
+            if (property == null) {
+                throw new TechnicalException("Unknown conflict property %s for %s", name, entityClass.getName());
+            }
+            properties.add(property);
+        }
+        return properties;
+    }
+
+    /**
+     * @return the properties written when an upsert updates an existing row
+     */
+    private List<String> getUpsertProperties(List<String> conflict) {
+        List<String> properties = new ArrayList<>();
+        for (String property : columns) {
+            if (!conflict.contains(property) && !property.equals(idProperty) && !CREATED.equals(property)) {
+                properties.add(property);
+            }
+        }
+        return properties;
+    }
+
     // -----------------------------------------------------------------------------------------------------------------
     // -----------------------------------------------------------------------------------------------------------------
 
@@ -139,7 +341,29 @@ public class EntityInfo<T> {
                 updatePairs.add(TextUtil.format("%s = :%s", escapeColumnName(property), property));
             }
         }
-        this.updatePairs = updatePairs;
+        this.updatePairs = Collections.unmodifiableList(updatePairs);
+        freeze();
+
+        // Final statements, executed as is (no template rendering)
+        String idColumn = getIdColumn();
+        insertSql = TextUtil.format("INSERT INTO %s (%s) VALUES (%s)", tableName,
+            String.join(", ", columnsEscaped), String.join(", ", valuesPlaceholder));
+        updateSql = TextUtil.format("UPDATE %s SET %s WHERE %s = :%s", tableName,
+            String.join(", ", updatePairs), idColumn, idProperty);
+        deleteSql = TextUtil.format("DELETE FROM %s WHERE %s = :%s", tableName, idColumn, idProperty);
+        selectSql = "SELECT * FROM " + tableName;
+        selectByIdSql = TextUtil.format("%s WHERE %s = :value", selectSql, idColumn);
+        countSql = "SELECT COUNT(*) FROM " + tableName;
+        existsSql = "SELECT 1 FROM " + tableName;
+    }
+
+    private void freeze() {
+        propertiesToColumnsMapping = Collections.unmodifiableMap(propertiesToColumnsMapping);
+        columnsEscaped = Collections.unmodifiableList(columnsEscaped);
+        columns = Collections.unmodifiableList(columns);
+        valuesPlaceholder = Collections.unmodifiableList(valuesPlaceholder);
+        propertiesTypes = Collections.unmodifiableMap(propertiesTypes);
+        customTypes = Collections.unmodifiableSet(customTypes);
     }
 
     public Class<?> getPropertyType(String key) {
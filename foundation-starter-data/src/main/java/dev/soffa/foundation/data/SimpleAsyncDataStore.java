@@ -0,0 +1,27 @@
+package dev.soffa.foundation.data;
+
+import dev.soffa.foundation.model.TenantId;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+public class SimpleAsyncDataStore implements AsyncDataStore {
+
+    private final DB db;
+    private final DataStore ds;
+
+    public SimpleAsyncDataStore(DB db) {
+        this(db, new SimpleDataStore(db));
+    }
+
+    public SimpleAsyncDataStore(DB db, DataStore ds) {
+        this.db = db;
+        this.ds = ds;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> submit(TenantId tenant, Function<DataStore, T> action) {
+        return AsyncCalls.submit(db, tenant, () -> action.apply(ds));
+    }
+
+}
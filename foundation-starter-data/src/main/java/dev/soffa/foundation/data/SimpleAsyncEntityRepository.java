@@ -0,0 +1,25 @@
+package dev.soffa.foundation.data;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+public class SimpleAsyncEntityRepository<E> implements AsyncEntityRepository<E> {
+
+    private final DB db;
+    private final SimpleEntityRepository<E> repository;
+
+    public SimpleAsyncEntityRepository(DB db, Class<E> entityClass) {
+        this(db, new SimpleEntityRepository<>(db, entityClass));
+    }
+
+    public SimpleAsyncEntityRepository(DB db, SimpleEntityRepository<E> repository) {
+        this.db = db;
+        this.repository = repository;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> submit(Function<EntityRepository<E>, T> action) {
+        return AsyncCalls.submit(db, repository.getLockedTenant(), () -> action.apply(repository));
+    }
+
+}
@@ -1,124 +1,243 @@
 package dev.soffa.foundation.data;
 
-import com.zaxxer.hikari.HikariDataSource;
+import com.google.common.collect.Iterators;
+import dev.soffa.foundation.commons.CollectionUtil;
 import dev.soffa.foundation.commons.IdGenerator;
+import dev.soffa.foundation.commons.Mappers;
 import dev.soffa.foundation.commons.TextUtil;
+import dev.soffa.foundation.data.cache.EntityCache;
+import dev.soffa.foundation.data.cache.EntityCacheProvider;
 import dev.soffa.foundation.data.jdbi.BeanMapper;
-import dev.soffa.foundation.data.jdbi.MapArgumentFactory;
-import dev.soffa.foundation.data.jdbi.ObjectArgumentFactory;
-import dev.soffa.foundation.data.jdbi.SerializableArgumentFactory;
+import dev.soffa.foundation.data.jdbi.JdbiFactory;
+import dev.soffa.foundation.data.jdbi.JdbiProvider;
 import dev.soffa.foundation.error.DatabaseException;
+import dev.soffa.foundation.error.TechnicalException;
+import dev.soffa.foundation.error.TenantsException;
+import dev.soffa.foundation.model.PageRequest;
+import dev.soffa.foundation.model.PagedResult;
 import dev.soffa.foundation.model.TenantId;
+import lombok.SneakyThrows;
+import lombok.Value;
+import org.apache.commons.lang3.reflect.FieldUtils;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
 import org.jdbi.v3.core.statement.Query;
-import org.jdbi.v3.postgres.PostgresPlugin;
-import org.jdbi.v3.sqlobject.SqlObjectPlugin;
-import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 
-import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class SimpleDataStore implements DataStore {
 
     private static final String TABLE = "table";
-    private static final String ID_COLUMN = "idColumn";
-    private static final String ID_FIELD = "idField";
-    private static final String WHERE = "where";
     private static final String VALUE = "value";
-    private static final String BINDING = "binding";
-    private static final String COLUMNS = "columns";
-    private static final String VALUES = "values";
+    private static final String WHERE = " WHERE ";
+    private static final String PAGE_LIMIT = "pageLimit";
+    private static final String PAGE_OFFSET = "pageOffset";
+    private static final String PAGE_AFTER = "pageAfter";
+    private static final String PAGE_AFTER_SORT = "pageAfterSort";
+    // First (top level) node of an EXPLAIN (FORMAT JSON) plan
+    private static final Pattern PLAN_ROWS = Pattern.compile("\"Plan Rows\":\\s*(\\d+)");
     private final DB db;
+    private final EntityCache cache;
 
     public SimpleDataStore(DB db) {
         this.db = db;
+        this.cache = db instanceof EntityCacheProvider ? ((EntityCacheProvider) db).getEntityCache() : null;
     }
 
     @Override
     public <E> E insert(TenantId tenant, @NonNull E model) {
-        if (model instanceof EntityLifecycle) {
-            EntityLifecycle lc = (EntityLifecycle) model;
-            lc.onInsert();
-            lc.onSave();
-        }
-        if (model instanceof EntityModel) {
-            EntityModel em = (EntityModel) model;
-            if (em.getCreated() == null) {
-                em.setCreated(Date.from(Instant.now()));
-            }
-            if (TextUtil.isEmpty(em.getId())) {
-                em.setId(IdGenerator.shortUUID());
-            }
-        }
-
-        return inTransaction(tenant, model.getClass(), (h, info) -> {
-            h.createUpdate("INSERT INTO <table> (<columns>) VALUES (<values>)")
-                .define(TABLE, info.getTableName())
-                .defineList(COLUMNS, info.getColumnsEscaped())
-                .defineList(VALUES, info.getValuesPlaceholder())
+        beforeInsert(model);
+        EntityInfo<E> info = EntityInfo.get(model, db.getTablesPrefix());
+        inTransaction(tenant, model.getClass(), (h, ignore) -> {
+            // EL
+            return h.createUpdate(info.getInsertSql())
                 .bindBean(model)
                 .execute();
-            return model;
         });
+        BeanMapper.of(info).track(model);
+        return model;
     }
 
     @Override
     public <E> E update(TenantId tenant, @NonNull E model) {
-        if (model instanceof EntityLifecycle) {
-            EntityLifecycle lc = (EntityLifecycle) model;
-            lc.onUpdate();
-            lc.onSave();
+        beforeUpdate(model);
+        EntityInfo<E> info = EntityInfo.get(model, db.getTablesPrefix());
+        List<String> changed = BeanMapper.of(info).getChangedProperties(model);
+        if (changed == null) {
+            return doUpdate(tenant, model, info, info.getUpdateSql(), null);
         }
-        return inTransaction(tenant, model.getClass(), (h, info) -> {
-            h.createUpdate("UPDATE <table> SET <columns> WHERE <idColumn> = :<idField>")
-                .define(TABLE, info.getTableName())
-                .defineList(COLUMNS, info.getUpdatePairs())
-                .defineList(ID_COLUMN, info.getIdColumn())
-                .defineList(ID_FIELD, info.getIdProperty())
+        if (changed.isEmpty()) {
+            return model;
+        }
+        return doUpdate(tenant, model, info, info.getUpdateSql(changed.toArray(new String[0])), null);
+    }
+
+    @Override
+    public <E> E update(TenantId tenant, @NonNull E model, String... fields) {
+        beforeUpdate(model);
+        EntityInfo<E> info = EntityInfo.get(model, db.getTablesPrefix());
+        return doUpdate(tenant, model, info, info.getUpdateSql(fields), Arrays.asList(fields));
+    }
+
+    private <E> E doUpdate(TenantId tenant, E model, EntityInfo<E> info, String sql, @Nullable List<String> fields) {
+        inTransaction(tenant, model.getClass(), (h, ignore) -> {
+            // EL
+            return h.createUpdate(sql)
                 .bindBean(model)
                 .execute();
-            return model;
         });
+        if (fields == null) {
+            BeanMapper.of(info).track(model);
+        } else {
+            BeanMapper.of(info).track(model, fields);
+        }
+        evict(tenant, Collections.singletonList(model));
+        return model;
+    }
+
+    @Override
+    public <E> E upsert(TenantId tenant, @NonNull E model, String... conflictProperties) {
+        beforeInsert(model);
+        inTransaction(tenant, model.getClass(), (h, info) -> {
+            // The row may keep its own id when the conflict is on another unique key
+            h.createUpdate(info.getUpsertSql(JdbiFactory.isPostgres(h), conflictProperties)).bindBean(model)
+                .executeAndReturnGeneratedKeys(info.getIdColumn())
+                .mapTo(info.getPropertyType(info.getIdProperty())).findOne()
+                .ifPresent(id -> writeId(info, model, id));
+            return 1;
+        });
+        BeanMapper.of(EntityInfo.get(model, db.getTablesPrefix())).track(model);
+        evict(tenant, Collections.singletonList(model));
+        return model;
     }
 
     @Override
     public <E> int delete(TenantId tenant, E model) {
-        return inTransaction(tenant, model.getClass(), (handle, info) -> {
+        int deleted = inTransaction(tenant, model.getClass(), (handle, info) -> {
             // EL
-            return handle.createUpdate("DELETE FROM <table> WHERE <idColumn> = :<idField>")
-                .define(TABLE, info.getTableName())
-                .defineList(ID_COLUMN, info.getIdColumn())
-                .defineList(ID_FIELD, info.getIdProperty())
+            return handle.createUpdate(info.getDeleteSql())
                 .bindBean(model)
                 .execute();
         });
+        evict(tenant, Collections.singletonList(model));
+        return deleted;
     }
 
     @Override
     public <E> int delete(TenantId tenant, @NonNull Class<E> entityClass, @NonNull Criteria criteria) {
-        return inTransaction(tenant, entityClass, (handle, info) -> {
+        int deleted = inTransaction(tenant, entityClass, (handle, info) -> {
             // EL
-            return handle.createUpdate("DELETE FROM <table> WHERE <where>")
-                .define(TABLE, info.getTableName())
-                .define(WHERE, criteria.getWhere())
+            String sql = "DELETE FROM " + info.getTableName() + WHERE;
+            if (criteria.getLimit() == null) {
+                sql += criteria.getWhere();
+            } else {
+                // DELETE ... LIMIT is not portable, the limited rows are selected by id instead
+                String id = info.getIdColumn();
+                sql += id + " IN (SELECT " + id + " FROM " + info.getTableName() + WHERE + criteria.getWhere()
+                    + orderAndLimit(criteria, null) + ")";
+            }
+            return handle.createUpdate(sql)
                 .bindMap(criteria.getBinding())
                 .execute();
         });
+        if (cache != null) {
+            cache.evictAll(tenant, entityClass);
+        }
+        return deleted;
+    }
+
+    @Override
+    public <E> int[] insertAll(TenantId tenant, Collection<E> entities) {
+        if (CollectionUtil.isEmpty(entities)) {
+            return new int[0];
+        }
+        entities.forEach(this::beforeInsert);
+        return executeBatch(tenant, entities, true, (handle, info, chunk) -> {
+            // EL
+            return executeBatch(handle.prepareBatch(info.getInsertSql()), chunk);
+        });
+    }
+
+    @Override
+    public <E> int[] updateAll(TenantId tenant, Collection<E> entities) {
+        if (CollectionUtil.isEmpty(entities)) {
+            return new int[0];
+        }
+        entities.forEach(this::beforeUpdate);
+        int[] counts = executeBatch(tenant, entities, true, (handle, info, chunk) -> {
+            // EL
+            return executeBatch(handle.prepareBatch(info.getUpdateSql()), chunk);
+        });
+        evict(tenant, entities);
+        return counts;
+    }
+
+    @Override
+    public <E> int[] upsertAll(TenantId tenant, Collection<E> entities, String... conflictProperties) {
+        if (CollectionUtil.isEmpty(entities)) {
+            return new int[0];
+        }
+        entities.forEach(this::beforeInsert);
+        int[] counts = executeBatch(tenant, entities, true, (handle, info, chunk) -> {
+            PreparedBatch batch = handle.prepareBatch(info.getUpsertSql(JdbiFactory.isPostgres(handle), conflictProperties));
+            for (E item : chunk) {
+                batch.bindBean(item).add();
+            }
+            // One id per statement, in order: rows updated on another unique key keep their own id
+            List<?> ids = batch.executeAndReturnGeneratedKeys(info.getIdColumn())
+                .mapTo(info.getPropertyType(info.getIdProperty())).list();
+            for (int i = 0; i < ids.size(); i++) {
+                writeId(info, chunk.get(i), ids.get(i));
+            }
+            return ids.size();
+        });
+        evict(tenant, entities);
+        return counts;
+    }
+
+    @Override
+    public <E> int[] deleteAll(TenantId tenant, Collection<E> entities) {
+        if (CollectionUtil.isEmpty(entities)) {
+            return new int[0];
+        }
+        int[] counts = executeBatch(tenant, entities, false, (handle, info, chunk) -> {
+            // EL
+            return executeBatch(handle.prepareBatch(info.getDeleteSql()), chunk);
+        });
+        evict(tenant, entities);
+        return counts;
     }
 
     @Override
     public <E> List<E> findAll(TenantId tenant, Class<E> entityClass) {
         return withHandle(tenant, entityClass, (handle, info) -> {
             // EL
-            return buildQuery(handle, entityClass, null)
+            return buildQuery(handle, info.getSelectSql(), null)
                 .map(BeanMapper.of(info)).collect(Collectors.toList());
         });
     }
@@ -127,16 +246,196 @@ public class SimpleDataStore implements DataStore {
     public <E> List<E> find(TenantId tenant, Class<E> entityClass, Criteria criteria) {
         return withHandle(tenant, entityClass, (handle, info) -> {
             //EL
-            return buildQuery(handle, entityClass, criteria)
+            return buildSelect(handle, info.getSelectSql(), criteria, null)
                 .map(BeanMapper.of(info)).collect(Collectors.toList());
         });
     }
 
+    @Override
+    public <E, P> List<P> find(TenantId tenant, Class<E> entityClass, Class<P> projection, @Nullable Criteria criteria) {
+        return withHandle(tenant, entityClass, (handle, info) -> {
+            EntityInfo<P> view = info.getProjection(projection);
+            return buildSelect(handle, view.getSelectSql(), criteria, null)
+                .map(BeanMapper.of(view)).list();
+        });
+    }
+
+    @Override
+    public <E> PagedResult<E> find(TenantId tenant, Class<E> entityClass, @Nullable Criteria criteria,
+                                   @NonNull PageRequest page, @Nullable Sort sort) {
+        int size = Math.max(1, page.getSize());
+        int number = Math.max(0, page.getNumber());
+        String where = criteria == null ? "1=1" : criteria.getWhere();
+        Map<String, Object> binding = criteria == null ? Collections.emptyMap() : criteria.getBinding();
+        return withHandle(tenant, entityClass, (handle, info) -> {
+            String idColumn = info.getIdColumn();
+            String sortColumn = sort == null ? idColumn : info.findColumn(sort.getProperty());
+            if (sortColumn == null) {
+                throw new TechnicalException("Unknown sort property %s for %s", sort.getProperty(), entityClass.getName());
+            }
+            boolean ascending = sort == null || sort.isAscending();
+            String direction = ascending ? "ASC" : "DESC";
+            // Not null for a sort on another column than the id, which then breaks the ties
+            String sortProperty = sortColumn.equals(idColumn) ? null : info.findProperty(sort.getProperty());
+            // Nulls are explicitly sorted high (the Postgres default, H2 sorts them low) for the seek below
+            String order = sortProperty == null
+                ? idColumn + " " + direction
+                : TextUtil.format("%s %s %s, %s %s", sortColumn, direction, ascending ? "NULLS LAST" : "NULLS FIRST",
+                idColumn, direction);
+            boolean seek = TextUtil.isNotEmpty(page.getAfter());
+            int offset = seek ? 0 : number * size;
+
+            Query query;
+            if (seek) {
+                PageCursor cursor = parseCursor(info, sortProperty, page.getAfter());
+                query = handle.createQuery(TextUtil.format("%s WHERE (%s) AND %s ORDER BY %s LIMIT :pageLimit",
+                        info.getSelectSql(), where, seekCondition(sortColumn, idColumn, ascending, cursor), order))
+                    .bind(PAGE_AFTER, cursor.getId());
+                if (cursor.getValue() != null) {
+                    query.bind(PAGE_AFTER_SORT, cursor.getValue());
+                }
+            } else if (offset > db.getConfig().getMaxPageOffset()) {
+                // Deferred join: the offset is walked on the id/sort index only, full rows are loaded for the page.
+                // Deep pages are still linear, the cursor of the result (next) seeks instead.
+                query = handle.createQuery(TextUtil.format("%s WHERE %s IN (SELECT %s FROM %s WHERE %s ORDER BY %s "
+                            + "LIMIT :pageLimit OFFSET :pageOffset) ORDER BY %s",
+                        info.getSelectSql(), idColumn, idColumn, info.getTableName(), where, order, order))
+                    .bind(PAGE_OFFSET, offset);
+            } else {
+                query = handle.createQuery(TextUtil.format("%s WHERE %s ORDER BY %s LIMIT :pageLimit OFFSET :pageOffset",
+                        info.getSelectSql(), where, order))
+                    .bind(PAGE_OFFSET, offset);
+            }
+            List<E> content = query
+                .bindMap(binding)
+                .bind(PAGE_LIMIT, size)
+                .map(BeanMapper.of(info))
+                .list();
+
+            long total;
+            boolean estimated = false;
+            if (!seek && content.size() < size && (number == 0 || !content.isEmpty())) {
+                total = (long) offset + content.size();
+            } else {
+                long estimate = estimateRows(handle, info);
+                if (estimate < 0 || criteria != null && estimate > db.getConfig().getMaxExactCount()) {
+                    // Partitioned or never analyzed tables have no usable reltuples, and counting the matches of a
+                    // filter would scan the large table: the plan estimate is used instead
+                    estimate = explainRows(handle, info, criteria);
+                }
+                if (estimate > db.getConfig().getMaxExactCount()) {
+                    estimated = true;
+                    total = estimate;
+                } else {
+                    total = handle.createQuery(info.getCountSql() + WHERE + where)
+                        .bindMap(binding)
+                        .mapTo(Long.class).one();
+                }
+            }
+            int totalPages = (int) ((total + size - 1) / size);
+            String next = null;
+            if (content.size() == size) {
+                next = toCursor(info, sortProperty, content.get(content.size() - 1));
+            }
+            return new PagedResult<>(content, total, totalPages, size, number, content.size(), estimated, next);
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E> CrossTenantResult<E> findAcrossTenants(Class<E> entityClass, @Nullable Criteria criteria,
+                                                      @Nullable Sort sort, int limit) {
+        if (limit <= 0) {
+            throw new TechnicalException("Invalid limit %d, it must be positive", limit);
+        }
+        EntityInfo<E> info = EntityInfo.get(entityClass, db.getTablesPrefix());
+        String sortProperty = sort == null ? info.getIdProperty() : info.findProperty(sort.getProperty());
+        if (sortProperty == null) {
+            throw new TechnicalException("Unknown sort property %s for %s", sort.getProperty(), entityClass.getName());
+        }
+        boolean ascending = sort == null || sort.isAscending();
+        String where = criteria == null ? "1=1" : criteria.getWhere();
+        Map<String, Object> binding = criteria == null ? Collections.emptyMap() : criteria.getBinding();
+
+        // Each tenant keeps its handle open while its rows are consumed by the merge
+        List<Handle> handles = new ArrayList<>();
+        AtomicBoolean merged = new AtomicBoolean();
+        try {
+            Map<String, Iterator<E>> rows;
+            Map<String, String> failures = new HashMap<>();
+            try {
+                rows = db.withTenantsAsync(id -> {
+                    // EL
+                    return openAcrossTenants(TenantId.of(id), handles, merged, handle -> {
+                        // Global top-N: no tenant can contribute more than the limit
+                        String sql = TextUtil.format("%s WHERE %s ORDER BY %s LIMIT %d", info.getSelectSql(), where,
+                            crossTenantOrder(handle, info, sortProperty, ascending), limit);
+                        return handle.createQuery(sql).bindMap(binding).setFetchSize(limit)
+                            .map(BeanMapper.of(info)).iterator();
+                    });
+                }, Duration.ofMillis(db.getConfig().getTenantTaskTimeout())).join();
+            } catch (CompletionException e) {
+                if (!(e.getCause() instanceof TenantsException)) {
+                    throw new DatabaseException(e.getCause());
+                }
+                TenantsException error = (TenantsException) e.getCause();
+                rows = (Map<String, Iterator<E>>) error.getResults();
+                error.getFailures().forEach((tenant, cause) -> failures.put(tenant, cause.getMessage()));
+            }
+
+            // Same order as the tenant queries: nulls high, then id, then tenant for a stable merge
+            Comparator<Object> values = Comparator.nullsLast((a, b) -> ((Comparable<Object>) a).compareTo(b));
+            Comparator<TenantRecord<E>> comparator = Comparator.comparing(r -> readProperty(r.getEntity(), sortProperty), values);
+            comparator = comparator.thenComparing(r -> readId(info, r.getEntity()), values);
+            if (!ascending) {
+                comparator = comparator.reversed();
+            }
+            comparator = comparator.thenComparing(TenantRecord::getTenant);
+
+            List<Iterator<TenantRecord<E>>> iterators = new ArrayList<>();
+            rows.forEach((tenant, iterator) -> {
+                // EL
+                iterators.add(Iterators.transform(iterator, entity -> new TenantRecord<>(tenant, entity)));
+            });
+            List<TenantRecord<E>> content = new ArrayList<>();
+            Iterators.addAll(content, Iterators.limit(Iterators.mergeSorted(iterators, comparator), limit));
+            return new CrossTenantResult<>(content, failures);
+        } finally {
+            synchronized (handles) {
+                merged.set(true);
+                handles.forEach(handle -> release(handle, true));
+            }
+        }
+    }
+
+    @Override
+    public <E> Stream<E> stream(TenantId tenant, Class<E> entityClass, @Nullable Criteria criteria) {
+        EntityInfo<E> info = EntityInfo.get(entityClass, db.getTablesPrefix());
+        Handle handle = getLink(tenant, true).open();
+        boolean ownTransaction = false;
+        try {
+            // Postgres only streams through a server-side cursor when autocommit is off and a fetch size is set
+            ownTransaction = handle.getConnection().getAutoCommit();
+            if (ownTransaction) {
+                handle.begin();
+            }
+            boolean commitOnClose = ownTransaction;
+            return buildSelect(handle, info.getSelectSql(), criteria, null)
+                .setFetchSize(db.getConfig().getFetchSize())
+                .map(BeanMapper.of(info))
+                .stream()
+                .onClose(() -> release(handle, commitOnClose));
+        } catch (Exception e) {
+            release(handle, ownTransaction);
+            throw new DatabaseException(e);
+        }
+    }
+
     @Override
     public <E> Optional<E> get(TenantId tenant, Class<E> entityClass, Criteria criteria) {
         return withHandle(tenant, entityClass, (handle, info) -> {
             //EL
-            return buildQuery(handle, entityClass, criteria)
+            return buildSelect(handle, info.getSelectSql(), criteria, 1)
                 .map(BeanMapper.of(info)).findFirst();
         });
     }
@@ -144,11 +443,18 @@ public class SimpleDataStore implements DataStore {
     @Override
     public <E> Optional<E> findById(TenantId tenant, Class<E> entityClass,
                                     Object value) {
+        if (cache != null && cache.isEnabled(entityClass)) {
+            EntityInfo<E> info = EntityInfo.get(entityClass, db.getTablesPrefix());
+            // Cached entries outlive the replication lag, they are always loaded from the primary
+            return cache.get(tenant, info, value, () -> loadById(tenant.onPrimary(), entityClass, value));
+        }
+        return loadById(tenant, entityClass, value);
+    }
+
+    private <E> Optional<E> loadById(TenantId tenant, Class<E> entityClass, Object value) {
         return withHandle(tenant, entityClass, (handle, info) -> {
             //EL
-            return handle.createQuery("SELECT * FROM <table> WHERE <idColumn> = :value")
-                .define(TABLE, info.getTableName())
-                .define(ID_COLUMN, info.getIdColumn())
+            return handle.createQuery(info.getSelectByIdSql())
                 .bind(VALUE, value)
                 .map(BeanMapper.of(info)).findFirst();
         });
@@ -158,8 +464,7 @@ public class SimpleDataStore implements DataStore {
     public <E> long count(TenantId tenant, @NonNull Class<E> entityClass) {
         return withHandle(tenant, entityClass, (handle, info) -> {
             //EL
-            return handle.createQuery("SELECT COUNT(*) from <table>")
-                .define(TABLE, info.getTableName())
+            return handle.createQuery(info.getCountSql())
                 .mapTo(Long.class).first();
         });
     }
@@ -168,28 +473,305 @@ public class SimpleDataStore implements DataStore {
     public <E> long count(TenantId tenant, @NonNull Class<E> entityClass, @Nullable Criteria criteria) {
         return withHandle(tenant, entityClass, (handle, info) -> {
             // EL
-            return buildQuery(handle, entityClass, "SELECT COUNT(*)", criteria)
+            return buildQuery(handle, info.getCountSql(), criteria)
                 .mapTo(Long.class).first();
         });
     }
 
+    @Override
+    public <E> boolean exists(TenantId tenant, @NonNull Class<E> entityClass, @Nullable Criteria criteria) {
+        return withHandle(tenant, entityClass, (handle, info) -> {
+            String sql = info.getExistsSql() + (criteria == null ? "" : WHERE + criteria.getWhere()) + " LIMIT 1";
+            Query query = handle.createQuery("SELECT EXISTS(" + sql + ")");
+            if (criteria != null) {
+                query.bindMap(criteria.getBinding());
+            }
+            return query.mapTo(Boolean.class).first();
+        });
+    }
+
+    @Override
+    public <E> long estimateCount(TenantId tenant, @NonNull Class<E> entityClass, @Nullable Criteria criteria) {
+        return withHandle(tenant, entityClass, (handle, info) -> {
+            long estimate = -1;
+            if (criteria == null) {
+                estimate = estimateRows(handle, info);
+            }
+            if (estimate < 0) {
+                // Partitioned or never analyzed tables have no usable reltuples, the plan estimate is used instead
+                estimate = explainRows(handle, info, criteria);
+            }
+            if (estimate < 0) {
+                estimate = buildQuery(handle, info.getCountSql(), criteria).mapTo(Long.class).first();
+            }
+            return estimate;
+        });
+    }
+
     // =================================================================================================================
 
-    private <E> Query buildQuery(Handle handle, Class<E> entityClass, @Nullable Criteria criteria) {
-        return buildQuery(handle, entityClass, "SELECT *", criteria);
+    private <E> void evict(TenantId tenant, Collection<E> entities) {
+        Class<?> entityClass = entities.iterator().next().getClass();
+        if (cache != null && cache.isEnabled(entityClass)) {
+            EntityInfo<?> info = EntityInfo.get(entityClass, db.getTablesPrefix());
+            List<Object> ids = entities.stream().map(e -> readId(info, e)).collect(Collectors.toList());
+            cache.evict(tenant, entityClass, ids);
+        }
     }
 
-    private <E> Query buildQuery(Handle handle, Class<E> entityClass, String baseQuery, @Nullable Criteria criteria) {
-        EntityInfo<E> info = EntityInfo.get(entityClass, db.getTablesPrefix());
+    private <E> void beforeInsert(E model) {
+        if (model instanceof EntityLifecycle) {
+            EntityLifecycle lc = (EntityLifecycle) model;
+            lc.onInsert();
+            lc.onSave();
+        }
+        if (model instanceof EntityModel) {
+            EntityModel em = (EntityModel) model;
+            if (em.getCreated() == null) {
+                em.setCreated(Date.from(Instant.now()));
+            }
+            if (TextUtil.isEmpty(em.getId())) {
+                em.setId(IdGenerator.shortUUID());
+            }
+        }
+    }
+
+    private <E> void beforeUpdate(E model) {
+        if (model instanceof EntityLifecycle) {
+            EntityLifecycle lc = (EntityLifecycle) model;
+            lc.onUpdate();
+            lc.onSave();
+        }
+    }
+
+    /**
+     * Executes a JDBC batch per chunk of {@link DbConfig#getBatchSize()} entities, each chunk in its own transaction.
+     *
+     * @param track whether the batch writes the entities, which are then tracked as stored once their chunk is committed
+     * @return the number of affected rows for each chunk
+     */
+    @SuppressWarnings("unchecked")
+    private <E> int[] executeBatch(TenantId tenant,
+                                   Collection<E> entities,
+                                   boolean track,
+                                   ChunkWriter<E> writer) {
+        Class<E> entityClass = (Class<E>) entities.iterator().next().getClass();
+        int batchSize = Math.max(1, db.getConfig().getBatchSize());
+        List<E> items = new ArrayList<>(entities);
+        BeanMapper<E> mapper = track ? BeanMapper.of(EntityInfo.get(entityClass, db.getTablesPrefix())) : null;
+        if (mapper != null) {
+            // Entities of a failed chunk stay untracked, their next update writes every column
+            items.forEach(mapper::forget);
+        }
+        int[] counts = new int[(items.size() + batchSize - 1) / batchSize];
+        for (int i = 0; i < counts.length; i++) {
+            List<E> chunk = items.subList(i * batchSize, Math.min(items.size(), (i + 1) * batchSize));
+            // EL
+            counts[i] = inTransaction(tenant, entityClass, (handle, info) -> writer.write(handle, info, chunk));
+            if (mapper != null) {
+                chunk.forEach(mapper::track);
+            }
+        }
+        return counts;
+    }
+
+    private static <E> int executeBatch(PreparedBatch batch, List<E> chunk) {
+        for (E item : chunk) {
+            batch.bindBean(item).add();
+        }
+        int affected = 0;
+        for (int count : batch.execute()) {
+            // Some drivers report Statement.SUCCESS_NO_INFO for batched statements
+            affected += count < 0 ? 1 : count;
+        }
+        return affected;
+    }
+
+    private static Query buildQuery(Handle handle, String baseSql, @Nullable Criteria criteria) {
         if (criteria == null) {
-            return handle.createQuery(baseQuery + " FROM <table>")
-                .define(TABLE, info.getTableName());
-        } else {
-            return handle.createQuery(baseQuery + " FROM <table> WHERE <where>")
-                .define(TABLE, info.getTableName())
-                .define(WHERE, criteria.getWhere())
-                .defineList(BINDING, criteria.getBinding())
-                .bindMap(criteria.getBinding());
+            return handle.createQuery(baseSql);
+        }
+        return handle.createQuery(baseSql + WHERE + criteria.getWhere())
+            .bindMap(criteria.getBinding());
+    }
+
+    private static Query buildSelect(Handle handle, String baseSql, @Nullable Criteria criteria,
+                                     @Nullable Integer limit) {
+        if (criteria == null) {
+            return handle.createQuery(limit == null ? baseSql : baseSql + " LIMIT " + limit);
+        }
+        return handle.createQuery(baseSql + WHERE + criteria.getWhere() + orderAndLimit(criteria, limit))
+            .bindMap(criteria.getBinding());
+    }
+
+    private static String orderAndLimit(Criteria criteria, @Nullable Integer limit) {
+        StringBuilder sql = new StringBuilder();
+        if (criteria.getOrderBy() != null) {
+            sql.append(" ORDER BY ").append(criteria.getOrderBy());
+        }
+        Integer max = criteria.getLimit();
+        if (limit != null) {
+            max = max == null ? limit : Math.min(max, limit);
+        }
+        if (max != null) {
+            // Inlined rather than bound: the value is an int and the statement stays cacheable per limit
+            sql.append(" LIMIT ").append(max);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Planner estimate of the number of rows (Postgres only, refreshed by ANALYZE), -1 when not available.
+     * Before Postgres 14, tables never analyzed and partitioned tables report 0 tuples on 0 pages rather than -1.
+     */
+    private static long estimateRows(Handle handle, EntityInfo<?> info) {
+        if (!JdbiFactory.isPostgres(handle)) {
+            return -1;
+        }
+        return handle.createQuery("SELECT CASE WHEN reltuples <= 0 AND relpages = 0 THEN -1 ELSE reltuples::bigint END "
+                + "FROM pg_class WHERE oid = to_regclass(:table)")
+            .bind(TABLE, info.getRawTableName())
+            .mapTo(Long.class).findFirst().orElse(-1L);
+    }
+
+    /**
+     * Planner estimate of the number of rows matching the criteria (Postgres only), -1 when not available.
+     */
+    private static long explainRows(Handle handle, EntityInfo<?> info, @Nullable Criteria criteria) {
+        if (!JdbiFactory.isPostgres(handle)) {
+            return -1;
+        }
+        String plan = buildQuery(handle, "EXPLAIN (FORMAT JSON) " + info.getExistsSql(), criteria)
+            .mapTo(String.class).first();
+        Matcher matcher = PLAN_ROWS.matcher(plan);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Runs the query of a tenant on a handle left open (in a transaction, for Postgres to stream through a cursor)
+     * until the merge completes. A tenant completing after the merge (timed out) releases its handle itself.
+     */
+    private <E> Iterator<E> openAcrossTenants(TenantId tenant, List<Handle> handles, AtomicBoolean merged,
+                                              Function<Handle, Iterator<E>> query) {
+        Handle handle = getLink(tenant, true).open();
+        Iterator<E> rows;
+        try {
+            if (!handle.isInTransaction()) {
+                handle.begin();
+            }
+            rows = query.apply(handle);
+        } catch (Exception e) {
+            release(handle, true);
+            throw new DatabaseException(e);
+        }
+        synchronized (handles) {
+            if (merged.get()) {
+                release(handle, true);
+                throw new TechnicalException("Rows of tenant %s are no longer expected", tenant.getValue());
+            }
+            handles.add(handle);
+        }
+        return rows;
+    }
+
+    /**
+     * ORDER BY matching the merge of {@link #findAcrossTenants}: nulls are sorted high on every database and text
+     * columns use the C collation on Postgres, which orders like String.compareTo (outside of supplementary
+     * characters) where the database default collation would not.
+     */
+    private static String crossTenantOrder(Handle handle, EntityInfo<?> info, String sortProperty, boolean ascending) {
+        String direction = ascending ? "ASC NULLS LAST" : "DESC NULLS FIRST";
+        String order = collated(handle, info, sortProperty) + " " + direction;
+        if (!sortProperty.equals(info.getIdProperty())) {
+            order += ", " + collated(handle, info, info.getIdProperty()) + " " + direction;
+        }
+        return order;
+    }
+
+    private static String collated(Handle handle, EntityInfo<?> info, String property) {
+        String column = info.findColumn(property);
+        if (info.getPropertyType(property) == String.class && JdbiFactory.isPostgres(handle)) {
+            return column + " COLLATE \"C\"";
+        }
+        return column;
+    }
+
+    /**
+     * Rows following the cursor, in the page order (sort value then id, nulls sorted high).
+     */
+    private static String seekCondition(String sortColumn, String idColumn, boolean ascending, PageCursor cursor) {
+        String operator = ascending ? ">" : "<";
+        if (sortColumn.equals(idColumn)) {
+            return TextUtil.format("%s %s :pageAfter", idColumn, operator);
+        }
+        if (cursor.getValue() == null) {
+            return ascending
+                ? TextUtil.format("(%s IS NULL AND %s > :pageAfter)", sortColumn, idColumn)
+                : TextUtil.format("(%s IS NOT NULL OR %s < :pageAfter)", sortColumn, idColumn);
+        }
+        String tuple = TextUtil.format("(%s, %s) %s (:pageAfterSort, :pageAfter)", sortColumn, idColumn, operator);
+        return ascending ? TextUtil.format("(%s OR %s IS NULL)", tuple, sortColumn) : tuple;
+    }
+
+    /**
+     * Cursor of the last row of a page: its id when sorted by id, otherwise its sort value and id (base64 JSON).
+     */
+    private static String toCursor(EntityInfo<?> info, @Nullable String sortProperty, Object entity) {
+        Object id = readId(info, entity);
+        if (sortProperty == null) {
+            return String.valueOf(id);
+        }
+        Object value = readProperty(entity, sortProperty);
+        if (value instanceof Date) {
+            value = ((Date) value).getTime();
+        }
+        byte[] json = Mappers.JSON.serializeAsBytes(Arrays.asList(value, id));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json);
+    }
+
+    private static PageCursor parseCursor(EntityInfo<?> info, @Nullable String sortProperty, String cursor) {
+        Class<?> idType = info.getPropertyType(info.getIdProperty());
+        if (sortProperty == null) {
+            return new PageCursor(null, Mappers.JSON.convert(cursor, idType));
+        }
+        List<Object> values;
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            values = Mappers.JSON.deserializeList(json, Object.class);
+        } catch (Exception e) {
+            throw new TechnicalException("Invalid page cursor %s for %s", cursor, info.getEntityClass().getName());
+        }
+        if (values.size() != 2 || values.get(1) == null) {
+            throw new TechnicalException("Invalid page cursor %s for %s", cursor, info.getEntityClass().getName());
+        }
+        Object value = values.get(0) == null
+            ? null
+            : Mappers.JSON.convert(values.get(0), info.getPropertyType(sortProperty));
+        return new PageCursor(value, Mappers.JSON.convert(values.get(1), idType));
+    }
+
+    @SneakyThrows
+    private static Object readId(EntityInfo<?> info, Object entity) {
+        return FieldUtils.readField(entity, info.getIdProperty(), true);
+    }
+
+    @SneakyThrows
+    private static Object readProperty(Object entity, String property) {
+        return FieldUtils.readField(entity, property, true);
+    }
+
+    @SneakyThrows
+    private static void writeId(EntityInfo<?> info, Object entity, Object id) {
+        FieldUtils.writeField(entity, info.getIdProperty(), id, true);
+    }
+
+    private static void release(Handle handle, boolean commit) {
+        try {
+            if (commit && handle.isInTransaction()) {
+                handle.commit();
+            }
+        } finally {
+            handle.close();
         }
     }
 
@@ -198,7 +780,9 @@ public class SimpleDataStore implements DataStore {
                                    BiFunction<Handle, EntityInfo<E>, T> consumer) {
         try {
             EntityInfo<E> info = EntityInfo.get(entityClass, db.getTablesPrefix());
-            return getLink(tenant).inTransaction(handle -> consumer.apply(handle, info));
+            // Reads following a write must see it, they are no longer sent to replicas
+            RoutingHolder.pinPrimary();
+            return getLink(tenant, false).inTransaction(handle -> consumer.apply(handle, info));
         } catch (Exception e) {
             throw new DatabaseException(e);
         }
@@ -209,26 +793,34 @@ public class SimpleDataStore implements DataStore {
                                 BiFunction<Handle, EntityInfo<E>, T> consumer) {
         try {
             EntityInfo<E> info = EntityInfo.get(entityClass, db.getTablesPrefix());
-            return getLink(tenant).withHandle(handle -> consumer.apply(handle, info));
+            return getLink(tenant, true).withHandle(handle -> consumer.apply(handle, info));
         } catch (Exception e) {
             throw new DatabaseException(e);
         }
     }
 
-    private Jdbi getLink(TenantId tenant) {
-        DataSource dataSource = db.determineTargetDataSource(tenant);
-        Jdbi jdbi = Jdbi.create(new TransactionAwareDataSourceProxy(dataSource))
-            .installPlugin(new SqlObjectPlugin());
-        if (dataSource instanceof HikariDataSource) {
-            String url = ((HikariDataSource) dataSource).getJdbcUrl();
-            if (url.startsWith("jdbc:postgres")) {
-                jdbi.installPlugin(new PostgresPlugin());
-            }
+    private Jdbi getLink(TenantId tenant, boolean read) {
+        if (db instanceof JdbiProvider) {
+            JdbiProvider provider = (JdbiProvider) db;
+            return read ? provider.getReadLink(tenant) : provider.getLink(tenant);
         }
-        jdbi.registerArgument(new SerializableArgumentFactory());
-        jdbi.registerArgument(new MapArgumentFactory());
-        jdbi.registerArgument(new ObjectArgumentFactory());
-        return jdbi;
+        return JdbiFactory.create(db.determineTargetDataSource(tenant));
+    }
+
+    @Value
+    private static class PageCursor {
+
+        @Nullable Object value;
+        Object id;
+    }
+
+    @FunctionalInterface
+    private interface ChunkWriter<E> {
+
+        /**
+         * @return the number of affected rows
+         */
+        int write(Handle handle, EntityInfo<E> info, List<E> chunk);
     }
 
 }
@@ -1,10 +1,14 @@
 package dev.soffa.foundation.data;
 
 import dev.soffa.foundation.commons.TextUtil;
+import dev.soffa.foundation.model.PageRequest;
+import dev.soffa.foundation.model.PagedResult;
 import dev.soffa.foundation.model.TenantId;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public class SimpleEntityRepository<E> implements EntityRepository<E> {
 
@@ -49,6 +53,16 @@ public class SimpleEntityRepository<E> implements EntityRepository<E> {
         return ds.count(getLockedTenant(), entityClass);
     }
 
+    @Override
+    public boolean exists(Criteria criteria) {
+        return ds.exists(getLockedTenant(), entityClass, criteria);
+    }
+
+    @Override
+    public long estimateCount(Criteria criteria) {
+        return ds.estimateCount(getLockedTenant(), entityClass, criteria);
+    }
+
     @Override
     public List<E> findAll() {
         return find((Criteria) null);
@@ -59,6 +73,26 @@ public class SimpleEntityRepository<E> implements EntityRepository<E> {
         return ds.find(getLockedTenant(), entityClass, criteria);
     }
 
+    @Override
+    public <P> List<P> find(Class<P> projection, Criteria criteria) {
+        return ds.find(getLockedTenant(), entityClass, projection, criteria);
+    }
+
+    @Override
+    public PagedResult<E> find(Criteria criteria, PageRequest page, Sort sort) {
+        return ds.find(getLockedTenant(), entityClass, criteria, page, sort);
+    }
+
+    @Override
+    public CrossTenantResult<E> findAcrossTenants(Criteria criteria, Sort sort, int limit) {
+        return ds.findAcrossTenants(entityClass, criteria, sort, limit);
+    }
+
+    @Override
+    public Stream<E> stream(Criteria criteria) {
+        return ds.stream(getLockedTenant(), entityClass, criteria);
+    }
+
     @Override
     public Optional<E> get(Criteria criteria) {
         return ds.get(getLockedTenant(), entityClass, criteria);
@@ -80,11 +114,41 @@ public class SimpleEntityRepository<E> implements EntityRepository<E> {
         return ds.update(getLockedTenant(), entity);
     }
 
+    @Override
+    public E update(E entity, String... fields) {
+        return ds.update(getLockedTenant(), entity, fields);
+    }
+
+    @Override
+    public E upsert(E entity, String... conflictProperties) {
+        return ds.upsert(getLockedTenant(), entity, conflictProperties);
+    }
+
     @Override
     public int delete(E entity) {
         return ds.delete(getLockedTenant(), entity);
     }
 
+    @Override
+    public int[] insertAll(Collection<E> entities) {
+        return ds.insertAll(getLockedTenant(), entities);
+    }
+
+    @Override
+    public int[] updateAll(Collection<E> entities) {
+        return ds.updateAll(getLockedTenant(), entities);
+    }
+
+    @Override
+    public int[] upsertAll(Collection<E> entities, String... conflictProperties) {
+        return ds.upsertAll(getLockedTenant(), entities, conflictProperties);
+    }
+
+    @Override
+    public int[] deleteAll(Collection<E> entities) {
+        return ds.deleteAll(getLockedTenant(), entities);
+    }
+
     @Override
     public int delete(Criteria criteria) {
         return ds.delete(getLockedTenant(), entityClass, criteria);
@@ -0,0 +1,22 @@
+package dev.soffa.foundation.data.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheInvalidation {
+
+    private String node;
+    private String tenant;
+    private String entity;
+    /**
+     * Ids to evict, null to evict every entry of the tenant.
+     */
+    private List<String> ids;
+
+}
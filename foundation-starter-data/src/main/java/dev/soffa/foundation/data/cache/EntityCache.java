@@ -0,0 +1,186 @@
+package dev.soffa.foundation.data.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.ImmutableMap;
+import dev.soffa.foundation.annotation.StoreCache;
+import dev.soffa.foundation.commons.IdGenerator;
+import dev.soffa.foundation.commons.Logger;
+import dev.soffa.foundation.data.EntityInfo;
+import dev.soffa.foundation.data.jdbi.BeanMapper;
+import dev.soffa.foundation.message.MessageFactory;
+import dev.soffa.foundation.message.pubsub.PubSubClient;
+import dev.soffa.foundation.metric.CoreMetrics;
+import dev.soffa.foundation.metric.MetricsRegistry;
+import dev.soffa.foundation.metric.NoopMetricsRegistryImpl;
+import dev.soffa.foundation.model.TenantId;
+import lombok.Value;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Second-level cache of findById results for entities annotated with {@link StoreCache}.
+ * Entries are keyed by (tenant, id) in one Caffeine cache per entity class, callers always get a copy.
+ */
+public final class EntityCache {
+
+    public static final String INVALIDATE = "entity_cache_invalidate";
+    private static final Logger LOG = Logger.get(EntityCache.class);
+
+    private final String node = IdGenerator.shortUUID("node_");
+    private final Map<Class<?>, Optional<Cache<Key, Object>>> caches = new ConcurrentHashMap<>();
+    private final Function<TenantId, String> tenantResolver;
+    private MetricsRegistry metrics = new NoopMetricsRegistryImpl();
+    private PubSubClient client;
+    private String subject;
+
+    public EntityCache(Function<TenantId, String> tenantResolver) {
+        this.tenantResolver = tenantResolver;
+    }
+
+    public void setMetrics(MetricsRegistry metrics) {
+        if (metrics != null) {
+            this.metrics = metrics;
+        }
+    }
+
+    /**
+     * Publishes local invalidations on the subject and applies the ones received from other instances.
+     */
+    public synchronized void bind(PubSubClient client, String subject) {
+        if (this.client != null || client == null) {
+            return;
+        }
+        client.listen(subject, message -> {
+            if (INVALIDATE.equals(message.getOperation())) {
+                onRemoteInvalidation(MessageFactory.getPayload(message, CacheInvalidation.class));
+            }
+            return Optional.empty();
+        });
+        this.subject = subject;
+        this.client = client;
+        LOG.info("Entity cache invalidations bound to %s", subject);
+    }
+
+    public boolean isEnabled(Class<?> entityClass) {
+        return getCache(entityClass) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <E> Optional<E> get(TenantId tenant, EntityInfo<E> info, Object id, Supplier<Optional<E>> loader) {
+        Cache<Key, Object> cache = getCache(info.getEntityClass());
+        if (cache == null || id == null) {
+            return loader.get();
+        }
+        Map<String, Object> tags = tags(info.getEntityClass());
+        boolean[] loaded = {false};
+        // Loading inside the cache computation makes concurrent invalidations of the same key wait for it
+        Object value = cache.get(new Key(tenantResolver.apply(tenant), id.toString()), key -> {
+            loaded[0] = true;
+            return loader.get().orElse(null);
+        });
+        metrics.increment(loaded[0] ? CoreMetrics.DB_CACHE_MISS : CoreMetrics.DB_CACHE_HIT, tags);
+        return Optional.ofNullable(BeanMapper.of(info).copy((E) value));
+    }
+
+    public void evict(TenantId tenant, Class<?> entityClass, Collection<?> ids) {
+        if (getCache(entityClass) == null) {
+            return;
+        }
+        String tenantKey = tenantResolver.apply(tenant);
+        List<String> keys = ids == null ? null : ids.stream().map(String::valueOf).collect(Collectors.toList());
+        evictLocal(tenantKey, entityClass, keys);
+        CacheInvalidation invalidation = new CacheInvalidation(node, tenantKey, entityClass.getName(), keys);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Readers may reload the previous state until the surrounding transaction completes
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evictLocal(tenantKey, entityClass, keys);
+                    publish(invalidation);
+                }
+            });
+        } else {
+            publish(invalidation);
+        }
+    }
+
+    public void evictAll(TenantId tenant, Class<?> entityClass) {
+        evict(tenant, entityClass, null);
+    }
+
+    private void evictLocal(String tenant, Class<?> entityClass, List<String> ids) {
+        Cache<Key, Object> cache = getCache(entityClass);
+        if (cache == null) {
+            return;
+        }
+        if (ids == null) {
+            cache.asMap().keySet().removeIf(key -> key.getTenant().equals(tenant));
+        } else {
+            cache.invalidateAll(ids.stream().map(id -> new Key(tenant, id)).collect(Collectors.toList()));
+        }
+    }
+
+    private void onRemoteInvalidation(CacheInvalidation invalidation) {
+        if (invalidation == null || node.equals(invalidation.getNode())) {
+            return;
+        }
+        caches.forEach((entityClass, cache) -> {
+            if (cache.isPresent() && entityClass.getName().equals(invalidation.getEntity())) {
+                evictLocal(invalidation.getTenant(), entityClass, invalidation.getIds());
+            }
+        });
+    }
+
+    private void publish(CacheInvalidation invalidation) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.publish(subject, MessageFactory.create(INVALIDATE, invalidation));
+        } catch (Exception e) {
+            LOG.error(e, "Unable to publish cache invalidation for %s", invalidation.getEntity());
+        }
+    }
+
+    private Cache<Key, Object> getCache(Class<?> entityClass) {
+        return caches.computeIfAbsent(entityClass, type -> {
+            StoreCache config = type.getAnnotation(StoreCache.class);
+            if (config == null) {
+                return Optional.empty();
+            }
+            Map<String, Object> tags = tags(type);
+            Cache<Key, Object> cache = Caffeine.newBuilder()
+                .maximumSize(config.maxSize())
+                .expireAfterWrite(config.ttl(), TimeUnit.SECONDS)
+                .removalListener((key, value, cause) -> {
+                    if (cause.wasEvicted()) {
+                        metrics.increment(CoreMetrics.DB_CACHE_EVICTION, tags);
+                    }
+                })
+                .build();
+            return Optional.of(cache);
+        }).orElse(null);
+    }
+
+    private static Map<String, Object> tags(Class<?> entityClass) {
+        return ImmutableMap.of("entity", entityClass.getSimpleName());
+    }
+
+    @Value
+    private static class Key {
+        String tenant;
+        String id;
+    }
+
+}
@@ -0,0 +1,7 @@
+package dev.soffa.foundation.data.cache;
+
+public interface EntityCacheProvider {
+
+    EntityCache getEntityCache();
+
+}
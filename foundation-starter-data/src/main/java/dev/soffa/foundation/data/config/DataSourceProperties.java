@@ -22,6 +22,10 @@ public class DataSourceProperties {
     private static final Logger LOG = Logger.get(DataSourceProperties.class);
     private String name;
     private String url;
+    /**
+     * Jdbc url without the schema, datasources with the same server url can share connections.
+     */
+    private String serverUrl;
     private String username;
     private String password;
     private String driverClassName;
@@ -60,6 +64,7 @@ public class DataSourceProperties {
             .password(jdbcInfo.getPassword())
             .schema(schema)
             .url(jdbcInfo.getUrl())
+            .serverUrl(jdbcInfo.getServerUrl())
             .driverClassName(jdbcInfo.getDriver())
             .properties(urlInfo.getParams())
             .build();
@@ -73,12 +78,14 @@ public class DataSourceProperties {
             LOG.warn("No password found in database url: %s", initialUrl);
         }
         StringBuilder jdbcUrl = new StringBuilder();
+        String serverUrl;
         String jdbcDriver;
         StringBuilder hostname = new StringBuilder(url.getHostname());
         String path = url.getPath().replaceAll("^/", "");
         if (H2.equals(provider)) {
             jdbcDriver = H2_DRIVER;
             jdbcUrl.append(String.format("jdbc:h2:%1$s:%2$s;MODE=PostgreSQL;DB_CLOSE_ON_EXIT=FALSE", hostname, path));
+            serverUrl = jdbcUrl.toString();
             if (TextUtil.isNotEmpty(schema)) {
                 jdbcUrl.append(";INIT=CREATE SCHEMA IF NOT EXISTS ").append(schema);
             }
@@ -90,6 +97,7 @@ public class DataSourceProperties {
                 hostname.append(':').append(url.getPort());
             }
             jdbcUrl.append(String.format("jdbc:postgresql://%1$s/%2$s", hostname, path));
+            serverUrl = jdbcUrl + "?ApplicationName=" + applicationName;
             if (TextUtil.isNotEmpty(schema)) {
                 // createSchema(jdbcUrl.toString(), url.getUsername(), url.getPassword(), schema);
                 jdbcUrl.append("?currentSchema=").append(schema).append('&');
@@ -99,7 +107,7 @@ public class DataSourceProperties {
             jdbcUrl.append("ApplicationName=").append(applicationName);
         }
 
-        return new JdbcInfo(jdbcDriver, jdbcUrl.toString(), url.getUsername(), url.getPassword(), schema);
+        return new JdbcInfo(jdbcDriver, jdbcUrl.toString(), serverUrl, url.getUsername(), url.getPassword(), schema);
     }
 
     /*
@@ -131,6 +139,7 @@ public class DataSourceProperties {
     private static class JdbcInfo {
         String driver;
         String url;
+        String serverUrl;
         String username;
         String password;
         String schema;
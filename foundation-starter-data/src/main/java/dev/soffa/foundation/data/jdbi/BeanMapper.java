@@ -1,31 +1,188 @@
 package dev.soffa.foundation.data.jdbi;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.soffa.foundation.annotation.TrackChanges;
 import dev.soffa.foundation.commons.Mappers;
 import dev.soffa.foundation.data.EntityInfo;
 import lombok.SneakyThrows;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
 import org.jdbi.v3.core.mapper.RowMapper;
 import org.jdbi.v3.core.statement.StatementContext;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.Clob;
 import java.sql.ResultSet;
-import java.util.HashMap;
-import java.util.Map;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class BeanMapper<T> implements RowMapper<T> {
 
+    private static final Map<Class<?>, BeanMapper<?>> MAPPERS = new ConcurrentHashMap<>();
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    // Column fingerprints of tracked entities, keyed by identity and released with the entity
+    private static final Cache<Object, Object[]> SNAPSHOTS = Caffeine.newBuilder().weakKeys().build();
+
     private final EntityInfo<T> entityInfo;
+    private final MethodHandle constructor;
+    private final List<Property> properties = new ArrayList<>();
+    private final boolean tracked;
 
     private BeanMapper(EntityInfo<T> entityInfo) {
         this.entityInfo = entityInfo;
+        this.constructor = compile(entityInfo.getEntityClass(), entityInfo.getPropertiesToColumnsMapping());
+        this.tracked = constructor != null && entityInfo.getEntityClass().isAnnotationPresent(TrackChanges.class);
     }
 
+    @SuppressWarnings("unchecked")
     public static <T> BeanMapper<T> of(EntityInfo<T> info) {
-        return new BeanMapper<>(info);
+        return (BeanMapper<T>) MAPPERS.computeIfAbsent(info.getEntityClass(), k -> new BeanMapper<>(info));
     }
 
-    @SneakyThrows
+    /**
+     * Resolves the column index of every property once per ResultSet, rows are then mapped
+     * by calling the compiled constructor and field setters directly.
+     */
     @Override
-    public T map(ResultSet rs, StatementContext ctx) {
+    public RowMapper<T> specialize(ResultSet rs, StatementContext ctx) throws SQLException {
+        if (constructor == null) {
+            return this;
+        }
+        ResultSetMetaData metadata = rs.getMetaData();
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = 1; i <= metadata.getColumnCount(); i++) {
+            labels.putIfAbsent(metadata.getColumnLabel(i).toLowerCase(), i);
+        }
+        int[] indexes = new int[properties.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = labels.getOrDefault(properties.get(i).column, -1);
+        }
+        return (row, context) -> mapRow(row, indexes);
+    }
+
+    @Override
+    public T map(ResultSet rs, StatementContext ctx) throws SQLException {
+        if (constructor == null) {
+            return mapWithJackson(rs);
+        }
+        return specialize(rs, ctx).map(rs, ctx);
+    }
+
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    private T mapRow(ResultSet rs, int[] indexes) {
+        Object instance = constructor.invokeExact();
+        for (int i = 0; i < indexes.length; i++) {
+            if (indexes[i] == -1) {
+                continue;
+            }
+            Property property = properties.get(i);
+            Object value = property.read(rs, indexes[i]);
+            if (value != null) {
+                property.setter.invokeExact(instance, value);
+            }
+        }
+        track((T) instance);
+        return (T) instance;
+    }
+
+    /**
+     * Records the current state of a tracked entity, as it is stored in the database.
+     */
+    public void track(T entity) {
+        if (tracked && entity != null) {
+            Object[] snapshot = new Object[properties.size()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = properties.get(i).fingerprint(entity);
+            }
+            SNAPSHOTS.put(entity, snapshot);
+        }
+    }
+
+    /**
+     * Refreshes the recorded state of the given properties only (after a partial update).
+     */
+    public void track(T entity, Collection<String> names) {
+        Object[] snapshot = tracked ? SNAPSHOTS.getIfPresent(entity) : null;
+        if (snapshot == null) {
+            return;
+        }
+        for (int i = 0; i < snapshot.length; i++) {
+            Property property = properties.get(i);
+            if (names.contains(property.name)) {
+                snapshot[i] = property.fingerprint(entity);
+            }
+        }
+    }
+
+    /**
+     * Drops the recorded state of the entity, its next update writes every column.
+     */
+    public void forget(T entity) {
+        if (tracked && entity != null) {
+            SNAPSHOTS.invalidate(entity);
+        }
+    }
+
+    /**
+     * @return the properties modified since the entity was loaded or written, null when the entity is not tracked
+     */
+    public List<String> getChangedProperties(T entity) {
+        Object[] snapshot = tracked ? SNAPSHOTS.getIfPresent(entity) : null;
+        if (snapshot == null) {
+            return null;
+        }
+        List<String> changed = new ArrayList<>();
+        for (int i = 0; i < snapshot.length; i++) {
+            Property property = properties.get(i);
+            if (!Objects.deepEquals(snapshot[i], property.fingerprint(entity))) {
+                changed.add(property.name);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Creates a detached copy of the entity, mutable values (dates, arrays, custom types) are copied as well.
+     */
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    public T copy(T source) {
+        if (source == null) {
+            return null;
+        }
+        if (constructor == null) {
+            String json = Mappers.JSON_FULLACCESS_SNAKE.serialize(source);
+            return (T) Mappers.JSON_FULLACCESS_SNAKE.deserialize(json, source.getClass());
+        }
+        Object instance = constructor.invokeExact();
+        for (Property property : properties) {
+            Object value = property.getter.invokeExact((Object) source);
+            if (value != null) {
+                property.setter.invokeExact(instance, property.copy(value));
+            }
+        }
+        track((T) instance);
+        return (T) instance;
+    }
+
+    // Fallback for entities that can't be instantiated directly (no default constructor)
+    @SneakyThrows
+    private T mapWithJackson(ResultSet rs) {
         Map<String, Object> values = new HashMap<>();
         for (Map.Entry<String, String> e : entityInfo.getPropertiesToColumnsMapping().entrySet()) {
             String col = e.getValue();
@@ -41,21 +198,164 @@ public final class BeanMapper<T> implements RowMapper<T> {
             if (value instanceof Clob) {
                 value = rs.getString(col);
             }
+            value = JsonCodec.unwrap(value);
             if (target.isInstance(value)) {
                 values.put(col, value);
                 continue;
             }
             boolean convertToMap = entityInfo.isCustomTypeOrMap(prop) && value instanceof String;
-            if (convertToMap && Mappers.isJson(value.toString())) {
-                if (Map.class.isAssignableFrom(target)) {
-                    value = Mappers.JSON.deserializeMap(value.toString());
-                } else {
-                    value = Mappers.JSON_FULLACCESS_SNAKE.deserializeMap(value.toString());
-                }
+            if (convertToMap && JsonCodec.looksLikeJson(value.toString())) {
+                value = JsonCodec.of(Map.class).decode(value.toString());
             }
             values.put(col, value);
         }
         return Mappers.JSON_FULLACCESS_SNAKE.convert(values, entityInfo.getEntityClass());
     }
 
+    private MethodHandle compile(Class<?> type, Map<String, String> mapping) {
+        if (Modifier.isAbstract(type.getModifiers())) {
+            return null;
+        }
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Constructor<?> defaultConstructor = type.getDeclaredConstructor();
+            defaultConstructor.setAccessible(true);
+            MethodHandle handle = lookup.unreflectConstructor(defaultConstructor).asType(CONSTRUCTOR_TYPE);
+            for (Map.Entry<String, String> e : mapping.entrySet()) {
+                Field field = FieldUtils.getField(type, e.getKey(), true);
+                if (field == null) {
+                    properties.clear();
+                    return null;
+                }
+                MethodHandle getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                MethodHandle setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                properties.add(new Property(e.getKey(), e.getValue(), field, getter, setter, entityInfo.isCustomTypeOrMap(e.getKey())));
+            }
+            return handle;
+        } catch (NoSuchMethodException | IllegalAccessException | SecurityException e) {
+            properties.clear();
+            return null;
+        }
+    }
+
+    private static final class Property {
+
+        private final String name;
+        private final String column;
+        private final Class<?> type;
+        private final Type genericType;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private final boolean custom;
+        private final JsonCodec codec;
+
+        Property(String name, String column, Field field, MethodHandle getter, MethodHandle setter, boolean custom) {
+            this.name = name;
+            this.column = column.toLowerCase();
+            this.type = ClassUtils.primitiveToWrapper(field.getType());
+            this.genericType = field.getGenericType();
+            this.getter = getter;
+            this.setter = setter;
+            this.custom = custom;
+            // Type variables can't be resolved here, the declared class is used instead
+            this.codec = custom ? JsonCodec.of(genericType instanceof TypeVariable ? type : genericType) : null;
+        }
+
+        Object read(ResultSet rs, int index) throws SQLException {
+            Object value = rs.getObject(index);
+            if (value == null) {
+                return null;
+            }
+            if (value instanceof Clob) {
+                value = rs.getString(index);
+            } else if (custom) {
+                value = JsonCodec.unwrap(value);
+            }
+            if (type.isInstance(value)) {
+                return value;
+            }
+            if (custom && value instanceof String) {
+                return decode((String) value);
+            }
+            return convert(value);
+        }
+
+        /**
+         * Comparable form of the property value, detached from the entity: the value itself for immutable types, a
+         * copy of byte arrays and the serialized value (as written to the column) of custom types.
+         */
+        @SneakyThrows
+        Object fingerprint(Object entity) {
+            Object value = getter.invokeExact(entity);
+            if (value == null) {
+                return null;
+            }
+            if (value instanceof Date) {
+                return ((Date) value).getTime();
+            }
+            if (value instanceof byte[]) {
+                return ((byte[]) value).clone();
+            }
+            if (custom) {
+                return JsonCodec.of(value.getClass()).encode(value);
+            }
+            return value;
+        }
+
+        Object copy(Object value) {
+            if (value instanceof Date) {
+                return ((Date) value).clone();
+            }
+            if (value instanceof byte[]) {
+                return ((byte[]) value).clone();
+            }
+            if (custom) {
+                String json = JsonCodec.of(value.getClass()).encode(value);
+                return JsonCodec.looksLikeJson(json) ? codec.decode(json) : value;
+            }
+            return value;
+        }
+
+        private Object decode(String value) {
+            if (!JsonCodec.looksLikeJson(value)) {
+                return Mappers.JSON_FULLACCESS_SNAKE.convert(value, type);
+            }
+            return codec.decode(value);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Object convert(Object value) {
+            if (value instanceof Number && Number.class.isAssignableFrom(type)) {
+                Number n = (Number) value;
+                if (type == Long.class) {
+                    return n.longValue();
+                } else if (type == Integer.class) {
+                    return n.intValue();
+                } else if (type == Double.class) {
+                    return n.doubleValue();
+                } else if (type == Float.class) {
+                    return n.floatValue();
+                } else if (type == Short.class) {
+                    return n.shortValue();
+                } else if (type == Byte.class) {
+                    return n.byteValue();
+                } else if (type == BigDecimal.class) {
+                    return new BigDecimal(n.toString());
+                } else if (type == BigInteger.class) {
+                    return new BigDecimal(n.toString()).toBigInteger();
+                }
+            }
+            if (type == String.class) {
+                return value.toString();
+            }
+            if (type.isEnum() && value instanceof String) {
+                return Enum.valueOf((Class<Enum>) type, (String) value);
+            }
+            if (type == Boolean.class && value instanceof Number) {
+                return ((Number) value).intValue() != 0;
+            }
+            return Mappers.JSON_FULLACCESS_SNAKE.convert(value, type);
+        }
+    }
+
 }
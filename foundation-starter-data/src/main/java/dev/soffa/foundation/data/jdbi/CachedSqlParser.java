@@ -0,0 +1,30 @@
+package dev.soffa.foundation.data.jdbi;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.jdbi.v3.core.statement.ColonPrefixSqlParser;
+import org.jdbi.v3.core.statement.ParsedSql;
+import org.jdbi.v3.core.statement.SqlParser;
+import org.jdbi.v3.core.statement.StatementContext;
+
+/**
+ * Parses each distinct statement once, statements are final strings (see EntityInfo) so their number is bounded.
+ */
+public final class CachedSqlParser implements SqlParser {
+
+    private static final int MAX_STATEMENTS = 2000;
+
+    private final SqlParser delegate = new ColonPrefixSqlParser();
+    private final Cache<String, ParsedSql> cache = Caffeine.newBuilder().maximumSize(MAX_STATEMENTS).build();
+
+    @Override
+    public ParsedSql parse(String sql, StatementContext ctx) {
+        return cache.get(sql, key -> delegate.parse(key, ctx));
+    }
+
+    @Override
+    public String nameParameter(String rawName, StatementContext ctx) {
+        return delegate.nameParameter(rawName, ctx);
+    }
+
+}
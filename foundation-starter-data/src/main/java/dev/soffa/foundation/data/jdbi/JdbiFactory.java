@@ -0,0 +1,53 @@
+package dev.soffa.foundation.data.jdbi;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.SneakyThrows;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.TemplateEngine;
+import org.jdbi.v3.postgres.PostgresPlugin;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
+
+import javax.sql.DataSource;
+
+public final class JdbiFactory {
+
+    private JdbiFactory() {
+    }
+
+    /**
+     * Creates a fully configured Jdbi engine (plugins and argument factories) for the given datasource.
+     * Engines are meant to be created once per datasource and reused, they are thread-safe.
+     * Statements are executed without template rendering and parsed once, SQL must be final.
+     */
+    public static Jdbi create(DataSource dataSource) {
+        Jdbi jdbi = Jdbi.create(new TransactionAwareDataSourceProxy(dataSource))
+            .installPlugin(new SqlObjectPlugin());
+        jdbi.setTemplateEngine(TemplateEngine.NOP);
+        jdbi.setSqlParser(new CachedSqlParser());
+        boolean postgres = isPostgres(dataSource);
+        if (postgres) {
+            jdbi.installPlugin(new PostgresPlugin());
+        }
+        jdbi.registerArgument(new SerializableArgumentFactory());
+        jdbi.registerArgument(new MapArgumentFactory(postgres));
+        jdbi.registerArgument(new ObjectArgumentFactory(postgres));
+        return jdbi;
+    }
+
+    @SneakyThrows
+    public static boolean isPostgres(DataSource dataSource) {
+        if (dataSource.isWrapperFor(HikariDataSource.class)) {
+            String url = dataSource.unwrap(HikariDataSource.class).getJdbcUrl();
+            return url != null && url.startsWith("jdbc:postgres");
+        }
+        return false;
+    }
+
+    @SneakyThrows
+    public static boolean isPostgres(Handle handle) {
+        return "PostgreSQL".equalsIgnoreCase(handle.getConnection().getMetaData().getDatabaseProductName());
+    }
+
+}
@@ -0,0 +1,30 @@
+package dev.soffa.foundation.data.jdbi;
+
+import dev.soffa.foundation.model.TenantId;
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+public interface JdbiProvider {
+
+    /**
+     * @return the preconfigured Jdbi engine bound to the datasource of the given tenant
+     */
+    Jdbi getLink(TenantId tenant);
+
+    /**
+     * @return the engine to use for reads, which may be bound to a read replica of the tenant datasource
+     */
+    default Jdbi getReadLink(TenantId tenant) {
+        return getLink(tenant);
+    }
+
+    /**
+     * @return the executor running asynchronous calls against the datasource of the given tenant
+     */
+    default Executor getExecutor(TenantId tenant) {
+        return ForkJoinPool.commonPool();
+    }
+
+}
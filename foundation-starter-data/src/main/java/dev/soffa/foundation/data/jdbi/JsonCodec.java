@@ -0,0 +1,75 @@
+package dev.soffa.foundation.data.jdbi;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import dev.soffa.foundation.commons.ObjectMapperFactory;
+import lombok.SneakyThrows;
+import org.postgresql.util.PGobject;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JSON codec of a custom type column, with the Jackson reader and writer resolved once per type. Maps use the plain
+ * JSON mapping, other types the snake_case full-access one (same settings as {@code Mappers}).
+ */
+public final class JsonCodec {
+
+    private static final ObjectMapper JSON = ObjectMapperFactory.newJsonMapper();
+    private static final ObjectMapper JSON_FULLACCESS_SNAKE = ObjectMapperFactory.newJsonMapper(
+        true, new PropertyNamingStrategies.SnakeCaseStrategy()
+    );
+    private static final Map<Type, JsonCodec> CODECS = new ConcurrentHashMap<>();
+
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    private JsonCodec(Type type) {
+        JavaType javaType = JSON.getTypeFactory().constructType(type);
+        ObjectMapper mapper = javaType.isMapLikeType() ? JSON : JSON_FULLACCESS_SNAKE;
+        this.reader = mapper.readerFor(javaType);
+        this.writer = mapper.writerFor(javaType);
+    }
+
+    public static JsonCodec of(Type type) {
+        return CODECS.computeIfAbsent(type, JsonCodec::new);
+    }
+
+    @SneakyThrows
+    public Object decode(String value) {
+        return reader.readValue(value);
+    }
+
+    @SneakyThrows
+    public String encode(Object value) {
+        return writer.writeValueAsString(value);
+    }
+
+    /**
+     * @return the JSON text of a json/jsonb column value, or the value itself
+     */
+    public static Object unwrap(Object value) {
+        if (value instanceof PGobject) {
+            return ((PGobject) value).getValue();
+        }
+        return value;
+    }
+
+    /**
+     * Cheap check on the first significant character, the value is parsed only once by the codec.
+     */
+    public static boolean looksLikeJson(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{' || c == '[';
+            }
+        }
+        return false;
+    }
+
+}
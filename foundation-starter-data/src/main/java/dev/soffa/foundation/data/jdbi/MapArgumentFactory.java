@@ -1,6 +1,5 @@
 package dev.soffa.foundation.data.jdbi;
 
-import dev.soffa.foundation.commons.Mappers;
 import org.jdbi.v3.core.argument.AbstractArgumentFactory;
 import org.jdbi.v3.core.argument.Argument;
 import org.jdbi.v3.core.config.ConfigRegistry;
@@ -10,14 +9,27 @@ import java.util.Map;
 
 public class MapArgumentFactory extends AbstractArgumentFactory<Map<String, Object>> {
 
+    private final boolean postgres;
+
     public MapArgumentFactory() {
-        super(Types.VARCHAR);
+        this(false);
+    }
+
+    public MapArgumentFactory(boolean postgres) {
+        super(postgres ? Types.OTHER : Types.VARCHAR);
+        this.postgres = postgres;
     }
 
     @Override
     protected Argument build(Map<String, Object> value, ConfigRegistry config) {
         return (position, statement, ctx) -> {
-            statement.setString(position, value == null ? null : Mappers.JSON.serialize(value));
+            if (value == null) {
+                statement.setNull(position, postgres ? Types.OTHER : Types.VARCHAR);
+            } else if (postgres) {
+                statement.setObject(position, JsonCodec.of(Map.class).encode(value), Types.OTHER);
+            } else {
+                statement.setString(position, JsonCodec.of(Map.class).encode(value));
+            }
         };
     }
 }
@@ -1,7 +1,6 @@
 package dev.soffa.foundation.data.jdbi;
 
 import dev.soffa.foundation.commons.ClassUtil;
-import dev.soffa.foundation.commons.Mappers;
 import dev.soffa.foundation.model.VO;
 import org.jdbi.v3.core.argument.Argument;
 import org.jdbi.v3.core.argument.ArgumentFactory;
@@ -14,6 +13,18 @@ import java.util.function.Function;
 
 public class ObjectArgumentFactory implements ArgumentFactory.Preparable {
 
+    private final boolean postgres;
+
+    public ObjectArgumentFactory() {
+        this(false);
+    }
+
+    /**
+     * @param postgres bind JSON values as untyped parameters, so that they are accepted by json/jsonb columns
+     */
+    public ObjectArgumentFactory(boolean postgres) {
+        this.postgres = postgres;
+    }
 
     @Override
     public Optional<Function<Object, Argument>> prepare(Type type, ConfigRegistry config) {
@@ -26,12 +37,16 @@ public class ObjectArgumentFactory implements ArgumentFactory.Preparable {
     private Argument build(Object value) {
         return (position, statement, ctx) -> {
             if (value == null) {
-                statement.setNull(position, Types.VARCHAR);
+                statement.setNull(position, postgres ? Types.OTHER : Types.VARCHAR);
             } else if (value instanceof VO) {
                 statement.setString(position, ((VO) value).getValue());
             } else {
-                String serialized = Mappers.JSON_FULLACCESS_SNAKE.serialize(value);
-                statement.setString(position, serialized);
+                String serialized = JsonCodec.of(value.getClass()).encode(value);
+                if (postgres) {
+                    statement.setObject(position, serialized, Types.OTHER);
+                } else {
+                    statement.setString(position, serialized);
+                }
             }
         };
     }
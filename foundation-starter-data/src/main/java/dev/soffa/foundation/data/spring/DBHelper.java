@@ -1,12 +1,17 @@
 package dev.soffa.foundation.data.spring;
 
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import dev.soffa.foundation.annotation.Store;
 import dev.soffa.foundation.commons.IdGenerator;
 import dev.soffa.foundation.commons.Logger;
 import dev.soffa.foundation.commons.Properties;
 import dev.soffa.foundation.commons.TextUtil;
 import dev.soffa.foundation.data.DataSourceConfig;
+import dev.soffa.foundation.data.EntityInfo;
 import dev.soffa.foundation.data.config.DataSourceProperties;
 import dev.soffa.foundation.error.DatabaseException;
 import dev.soffa.foundation.error.TechnicalException;
@@ -16,25 +21,47 @@ import lombok.SneakyThrows;
 import net.javacrumbs.shedlock.core.LockProvider;
 import net.javacrumbs.shedlock.provider.jdbctemplate.JdbcTemplateLockProvider;
 import org.jdbi.v3.core.Jdbi;
+import org.reflections.Reflections;
 import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import javax.persistence.Table;
 import javax.sql.DataSource;
+import java.io.InputStream;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Timestamp;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.reflections.scanners.Scanners.TypesAnnotated;
 
 public final class DBHelper {
 
     private static final Logger LOG = Logger.get(DBHelper.class);
     private static final ResourceLoader RL = new DefaultResourceLoader();
+    private static final Map<String, String> CHECKSUMS = new ConcurrentHashMap<>();
+    private static final String CHECKSUM_TABLE = "f_changelog_checksum";
 
     private DBHelper() {
     }
 
-    @SneakyThrows
     public static HikariDataSource createDataSource(DataSourceProperties config, DataSourceConfig link) {
+        link.setName(config.getName());
+        return createDataSource(config);
+    }
+
+    @SneakyThrows
+    public static HikariDataSource createDataSource(DataSourceProperties config) {
 
         HikariConfig hc = new HikariConfig();
 
@@ -47,7 +74,7 @@ public final class DBHelper {
 
         Properties props = new Properties(config.getProperties());
 
-        hc.setMinimumIdle(props.getInt("minimumIdle", 10_000));
+        hc.setMinimumIdle(props.getInt("minimumIdle", 1));
         hc.setConnectionTimeout(props.getInt("connectionTimeout", 30_000));
         hc.setIdleTimeout(props.getInt("idleTimeout", 35_000));
         hc.setMaxLifetime(props.getInt("maxLifetime", 45_000));
@@ -62,16 +89,49 @@ public final class DBHelper {
         if (config.hasSchema()) {
             hc.setSchema(config.getSchema());
         }
-        link.setName(config.getName());
         return new HikariDataSource(hc);
     }
 
 
+    /**
+     * Adjusts the size of a dedicated pool within [min, max]: grows by half when threads are waiting for a
+     * connection, shrinks by one when less than half of the connections are in use.
+     */
+    public static void autosize(DataSource ds, int min, int max) {
+        if (!(ds instanceof HikariDataSource)) {
+            return;
+        }
+        HikariDataSource hds = (HikariDataSource) ds;
+        HikariPoolMXBean pool = hds.getHikariPoolMXBean();
+        if (pool == null) {
+            return;
+        }
+        int size = hds.getHikariConfigMXBean().getMaximumPoolSize();
+        int target = size;
+        if (pool.getThreadsAwaitingConnection() > 0) {
+            target = Math.min(max, size + Math.max(1, size / 2));
+        } else if (pool.getActiveConnections() < size / 2) {
+            target = Math.max(min, size - 1);
+        }
+        if (target != size) {
+            hds.getHikariConfigMXBean().setMaximumPoolSize(target);
+            LOG.debug("Pool %s resized from %d to %d", hds.getPoolName(), size, target);
+        }
+    }
+
     public static void applyMigrations(DatasourceInfo dsInfo, String changeLogPath, String tablesPrefix, String appicationName) {
+        applyMigrations(dsInfo, changeLogPath, tablesPrefix, appicationName, Collections.emptyMap());
+    }
+
+    /**
+     * @param parameters additional changelog parameters
+     */
+    public static void applyMigrations(DatasourceInfo dsInfo, String changeLogPath, String tablesPrefix, String appicationName,
+                                       Map<String, String> parameters) {
         SpringLiquibase lqb = new SpringLiquibase();
         lqb.setDropFirst(false);
         lqb.setResourceLoader(RL);
-        Map<String, String> changeLogParams = new HashMap<>();
+        Map<String, String> changeLogParams = new HashMap<>(parameters);
 
         changeLogParams.put("prefix", "");
         changeLogParams.put("table_prefix", "");
@@ -105,8 +165,8 @@ public final class DBHelper {
 
     private static void doApplyMigration(DatasourceInfo dsInfo, SpringLiquibase lqb, Map<String, String> changeLogParams) {
         @SuppressWarnings("PMD.CloseResource")
-        HikariDataSource ds = (HikariDataSource) dsInfo.getDataSource();
-        String schema = ds.getSchema();
+        DataSource ds = dsInfo.getDataSource();
+        String schema = getSchema(ds);
         if (TenantId.DEFAULT_VALUE.equals(dsInfo.getName())) {
             lqb.setContexts(TenantId.DEFAULT_VALUE);
         } else {
@@ -125,7 +185,7 @@ public final class DBHelper {
         } catch (Exception e) {
             String msg = e.getMessage().toLowerCase();
             if (msg.contains("changelog") && msg.contains("already exists")) {
-                boolean isTestDb = ((HikariDataSource) lqb.getDataSource()).getJdbcUrl().startsWith("jdbc:h2:mem");
+                boolean isTestDb = getPool(ds).getJdbcUrl().startsWith("jdbc:h2:mem");
                 if (!isTestDb) {
                     LOG.warn("Looks like migrations are being ran twice for %s.%s, ignore this error", dsInfo.getName(), schema);
                 }
@@ -135,6 +195,18 @@ public final class DBHelper {
         }
     }
 
+    private static String getSchema(DataSource ds) {
+        if (ds instanceof TenantSchemaDataSource) {
+            return ((TenantSchemaDataSource) ds).getSchema();
+        }
+        return getPool(ds).getSchema();
+    }
+
+    @SneakyThrows
+    private static HikariDataSource getPool(DataSource ds) {
+        return ds.unwrap(HikariDataSource.class);
+    }
+
     public static String findChangeLogPath(String applicationName, DataSourceConfig config) {
         String changelogPath = null;
         boolean hasMigration = !("false".equals(config.getMigration()) || "no".equals(config.getMigration()));
@@ -154,6 +226,94 @@ public final class DBHelper {
         return changelogPath;
     }
 
+    /**
+     * Aggregate checksum of a changelog: every resource of its folder plus the changelog parameters.
+     * Computed once per changelog.
+     */
+    public static String changelogChecksum(String changelogPath, String tablesPrefix, String applicationName) {
+        return changelogChecksum(changelogPath, tablesPrefix, applicationName, Collections.emptyMap());
+    }
+
+    public static String changelogChecksum(String changelogPath, String tablesPrefix, String applicationName,
+                                           Map<String, String> parameters) {
+        String seed = changelogPath + "|" + tablesPrefix + "|" + applicationName + "|" + new TreeMap<>(parameters);
+        return CHECKSUMS.computeIfAbsent(seed, key -> computeChecksum(changelogPath, key));
+    }
+
+    @SneakyThrows
+    private static String computeChecksum(String changelogPath, String seed) {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(seed.getBytes(StandardCharsets.UTF_8));
+        String folder = changelogPath.substring(0, changelogPath.lastIndexOf('/') + 1);
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources("classpath*:" + folder + "**/*");
+        Map<String, Resource> sorted = new TreeMap<>();
+        for (Resource resource : resources) {
+            if (resource.isReadable()) {
+                String url = resource.getURL().toString();
+                // Relative name, so that the checksum does not depend on where the service is deployed
+                sorted.put(url.substring(url.lastIndexOf(folder) + folder.length()), resource);
+            }
+        }
+        for (Map.Entry<String, Resource> e : sorted.entrySet()) {
+            digest.update(e.getKey().getBytes(StandardCharsets.UTF_8));
+            try (InputStream is = e.getValue().getInputStream()) {
+                digest.update(ByteStreams.toByteArray(is));
+            }
+        }
+        return BaseEncoding.base16().lowerCase().encode(digest.digest());
+    }
+
+    /**
+     * @return the checksum of the changelog last applied to the datasource, null if unknown
+     */
+    public static String readChecksum(DataSource ds, String tablesPrefix, String changelogPath) {
+        try {
+            return Jdbi.create(ds).withHandle(handle -> {
+                // EL
+                return handle.createQuery("SELECT checksum FROM " + tablesPrefix + CHECKSUM_TABLE + " WHERE changelog = :changelog")
+                    .bind("changelog", changelogPath)
+                    .mapTo(String.class).findFirst().orElse(null);
+            });
+        } catch (Exception e) {
+            // The table is created with the first checksum
+            return null;
+        }
+    }
+
+    public static void writeChecksum(DataSource ds, String tablesPrefix, String changelogPath, String checksum) {
+        String table = tablesPrefix + CHECKSUM_TABLE;
+        Jdbi.create(ds).useHandle(handle -> {
+            handle.execute("CREATE TABLE IF NOT EXISTS " + table + "(changelog VARCHAR(255) NOT NULL, checksum VARCHAR(64) NOT NULL, applied_at TIMESTAMP NOT NULL, PRIMARY KEY (changelog))");
+            handle.useTransaction(h -> {
+                h.createUpdate("DELETE FROM " + table + " WHERE changelog = :changelog").bind("changelog", changelogPath).execute();
+                h.createUpdate("INSERT INTO " + table + "(changelog, checksum, applied_at) VALUES (:changelog, :checksum, :appliedAt)")
+                    .bind("changelog", changelogPath)
+                    .bind("checksum", checksum)
+                    .bind("appliedAt", new Timestamp(System.currentTimeMillis()))
+                    .execute();
+            });
+        });
+    }
+
+    /**
+     * Indexes every @Store/@Table entity of the given packages so that requests never pay the reflection cost.
+     */
+    public static void registerEntities(String tablePrefix, String... packages) {
+        long start = System.currentTimeMillis();
+        Set<Class<?>> entities = new HashSet<>();
+        for (String pkg : packages) {
+            if (TextUtil.isEmpty(pkg)) {
+                continue;
+            }
+            Reflections reflections = new Reflections(pkg);
+            entities.addAll(reflections.get(TypesAnnotated.with(Store.class).asClass()));
+            entities.addAll(reflections.get(TypesAnnotated.with(Table.class).asClass()));
+        }
+        entities.removeIf(type -> type.isInterface() || Modifier.isAbstract(type.getModifiers()));
+        int count = EntityInfo.registerAll(entities, tablePrefix);
+        LOG.info("%d entities indexed in %d ms", count, System.currentTimeMillis() - start);
+    }
+
     @SneakyThrows
     public static LockProvider createLockTable(DataSource ds, String tablePrefix) {
         LockProvider lockProvider = new JdbcTemplateLockProvider(JdbcTemplateLockProvider.Configuration.builder()
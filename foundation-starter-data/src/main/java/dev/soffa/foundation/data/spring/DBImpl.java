@@ -1,17 +1,29 @@
 package dev.soffa.foundation.data.spring;
 
+import com.google.common.collect.ImmutableMap;
+import com.zaxxer.hikari.HikariDataSource;
 import dev.soffa.foundation.commons.CollectionUtil;
 import dev.soffa.foundation.commons.EventBus;
 import dev.soffa.foundation.commons.Logger;
 import dev.soffa.foundation.commons.TextUtil;
 import dev.soffa.foundation.config.AppConfig;
 import dev.soffa.foundation.data.*;
+import dev.soffa.foundation.data.cache.EntityCache;
+import dev.soffa.foundation.data.cache.EntityCacheProvider;
 import dev.soffa.foundation.data.config.DataSourceProperties;
+import dev.soffa.foundation.data.jdbi.JdbiProvider;
 import dev.soffa.foundation.error.ConfigurationException;
+import dev.soffa.foundation.error.DatabaseException;
 import dev.soffa.foundation.error.InvalidTenantException;
 import dev.soffa.foundation.error.NotImplementedException;
 import dev.soffa.foundation.error.TechnicalException;
+import dev.soffa.foundation.error.TenantsException;
+import dev.soffa.foundation.error.TimeoutException;
 import dev.soffa.foundation.events.DatabaseReadyEvent;
+import dev.soffa.foundation.message.pubsub.PubSubMessenger;
+import dev.soffa.foundation.metric.CoreMetrics;
+import dev.soffa.foundation.metric.MetricsRegistry;
+import dev.soffa.foundation.metric.NoopMetricsRegistryImpl;
 import dev.soffa.foundation.model.TenantId;
 import dev.soffa.foundation.multitenancy.TenantHolder;
 import dev.soffa.foundation.multitenancy.TenantsLoader;
@@ -20,40 +32,75 @@ import net.javacrumbs.shedlock.core.LockConfiguration;
 import net.javacrumbs.shedlock.core.LockProvider;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.jdbi.v3.core.Jdbi;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @SuppressWarnings("PMD.GodClass")
-public final class DBImpl extends AbstractDataSource implements ApplicationListener<ContextRefreshedEvent>, DB {
+public final class DBImpl extends AbstractDataSource implements ApplicationListener<ContextRefreshedEvent>, DisposableBean, DB, JdbiProvider, EntityCacheProvider {
 
     private static final Logger LOG = Logger.get(DBImpl.class);
     private static final String TENANT_PLACEHOLDER = "__tenant__";
-    private static final AtomicReference<String> LOCK = new AtomicReference<>("DB_LOCK");
+    private static final String DATASOURCE = "datasource";
+    private static final String FRAMEWORK_ENTITIES = "dev.soffa.foundation.extra";
+    private static final long POOL_MAINTENANCE_INTERVAL = 30_000;
+    // Datasources used within this delay are never closed, even above the open tenants cap
+    private static final long MIN_IDLE_TIME = 60_000;
+    private static final Duration MIGRATION_LOCK = Duration.ofSeconds(60);
+    private static final Duration MIGRATION_LOCK_POLL = Duration.ofMillis(500);
     private final AppConfig appConfig;
     private final ApplicationContext context;
     private final Map<String, DatasourceInfo> registry = new ConcurrentHashMap<>();
+    private final Map<String, SharedPool> sharedPools = new ConcurrentHashMap<>();
+    // Tenants whose datasource is opened on demand (lazy mode)
+    private final Set<String> lazyTenants = ConcurrentHashMap.newKeySet();
+    private final Set<String> migrated = ConcurrentHashMap.newKeySet();
+    private final Map<String, Object> openLocks = new ConcurrentHashMap<>();
+    private final Map<String, Object> migrationLocks = new ConcurrentHashMap<>();
+    private final EntityCache entityCache = new EntityCache(this::resolveLookupKey);
+    private DbConfig config = new DbConfig();
     private String tablesPrefix;
     private String tenanstListQuery;
     private LockProvider lockProvider;
+    private ScheduledExecutorService maintenance;
+    private JournalPartitions journalPartitions;
+    private ExecutorService tenantExecutor;
+    private boolean replicaChecks;
 
     @SneakyThrows
     public DBImpl(final ApplicationContext context,
@@ -63,11 +110,19 @@ public final class DBImpl extends AbstractDataSource implements ApplicationListe
         this.context = context;
         this.appConfig = appConfig;
         if (appConfig.getDb() != null) {
+            this.config = appConfig.getDb();
             this.tenanstListQuery = appConfig.getDb().getTenantListQuery();
             this.tablesPrefix = appConfig.getDb().getTablesPrefix();
+            DBHelper.registerEntities(tablesPrefix, appConfig.getPkg(), FRAMEWORK_ENTITIES);
             createDatasources(appConfig.getDb().getDatasources());
             this.lockProvider = DBHelper.createLockTable(registry.get(TenantId.DEFAULT_VALUE).getDataSource(), this.tablesPrefix);
             applyMirations();
+            if (config.isLazyTenants()) {
+                schedule(POOL_MAINTENANCE_INTERVAL, this::closeIdleTenants);
+            }
+            if (config.isAutosizePools()) {
+                schedule(POOL_MAINTENANCE_INTERVAL, this::autosizePools);
+            }
         }
     }
 
@@ -76,9 +131,14 @@ public final class DBImpl extends AbstractDataSource implements ApplicationListe
         return tablesPrefix;
     }
 
+    @Override
+    public DbConfig getConfig() {
+        return config;
+    }
+
     @Override
     public Set<String> getTenantList() {
-        return registry.keySet().stream().filter(id -> {
+        return Stream.concat(registry.keySet().stream(), lazyTenants.stream()).filter(id -> {
             // EL
             return !(id.equals(TENANT_PLACEHOLDER) || id.equals(TenantId.DEFAULT_VALUE));
         }).collect(Collectors.toSet());
@@ -97,16 +157,91 @@ public final class DBImpl extends AbstractDataSource implements ApplicationListe
 
     @Override
     public void withTenantsAsync(Consumer<String> consumer) {
-        ExecutorService scheduler = Executors.newFixedThreadPool(registry.size());
+        withTenantsAsync(id -> {
+            consumer.accept(id);
+            return true;
+        }, Duration.ofMillis(config.getTenantTaskTimeout())).whenComplete((results, error) -> {
+            if (error != null) {
+                LOG.error(error.getCause() == null ? error : error.getCause(), "Tenants task failed");
+            }
+        });
+    }
+
+    @Override
+    public <R> CompletableFuture<Map<String, R>> withTenantsAsync(Function<String, R> function, Duration timeout) {
         Set<String> tenants = getTenantList();
-        tenants.forEach((id) -> {
-            boolean skip = id.equals(TENANT_PLACEHOLDER) || id.equals(TenantId.DEFAULT_VALUE);
-            if (!skip) {
-                scheduler.execute(() -> TenantHolder.use(id, () -> consumer.accept(id)));
+        Map<String, R> results = Collections.synchronizedMap(new HashMap<>());
+        Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        List<CompletableFuture<R>> futures = new ArrayList<>();
+        for (String id : tenants) {
+            CompletableFuture<R> future = new CompletableFuture<>();
+            getTenantExecutor().execute(() -> runTenantTask(id, function, timeout, future));
+            futures.add(future.whenComplete((result, error) -> {
+                if (error == null) {
+                    results.put(id, result);
+                } else {
+                    failures.put(id, error);
+                }
+            }));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).handle((ignored, error) -> {
+            if (!failures.isEmpty()) {
+                throw new TenantsException(failures, results);
             }
+            return results;
         });
     }
 
+    /**
+     * Runs the function for a tenant on the current (pooled) thread. The timeout starts here, not when the task is
+     * queued, so that tenants waiting for a free thread are not cancelled before they run.
+     */
+    @SuppressWarnings("PMD.AvoidCatchingThrowable")
+    private <R> void runTenantTask(String id, Function<String, R> function, Duration timeout, CompletableFuture<R> future) {
+        AtomicReference<Thread> runner = new AtomicReference<>(Thread.currentThread());
+        ScheduledFuture<?> timer = getScheduler().schedule(() -> {
+            if (future.completeExceptionally(new TimeoutException("Tenant %s did not complete within %s", id, timeout))) {
+                synchronized (runner) {
+                    Thread thread = runner.get();
+                    if (thread != null) {
+                        thread.interrupt();
+                    }
+                }
+            }
+        }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        long start = System.currentTimeMillis();
+        Map<String, Object> tags = ImmutableMap.of("tenant", id);
+        try {
+            // Pool threads are reused across tenants, a write of this task must not pin the next ones
+            future.complete(RoutingHolder.unitOfWork(() -> TenantHolder.use(id, () -> function.apply(id))));
+            getMetrics().increment(CoreMetrics.DB_TENANT_TASK, tags);
+        } catch (Throwable e) {
+            getMetrics().increment(CoreMetrics.DB_TENANT_TASK + MetricsRegistry.FAILED_SUFFIX, tags);
+            future.completeExceptionally(e);
+        } finally {
+            timer.cancel(false);
+            synchronized (runner) {
+                runner.set(null);
+            }
+            // The interrupt of a timeout must not leak to the next task of this thread
+            Thread.interrupted();
+            getMetrics().timed(CoreMetrics.DB_TENANT_TASK + MetricsRegistry.DURATION_SUFFIX,
+                Duration.ofMillis(System.currentTimeMillis() - start), tags);
+        }
+    }
+
+    private synchronized ExecutorService getTenantExecutor() {
+        if (tenantExecutor == null) {
+            AtomicInteger counter = new AtomicInteger();
+            tenantExecutor = Executors.newFixedThreadPool(Math.max(1, config.getTenantParallelism()), r -> {
+                Thread thread = new Thread(r, "db-tenant-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return tenantExecutor;
+    }
+
     private void createDatasources(Map<String, DataSourceConfig> datasources) {
         if (datasources == null || datasources.isEmpty()) {
             LOG.warn("No datasources configured for this service.");
@@ -127,7 +262,11 @@ public final class DBImpl extends AbstractDataSource implements ApplicationListe
         }
         DataSourceConfig tplConfig = registry.get(TENANT_PLACEHOLDER).getConfig();
         for (String name : names) {
-            register(name, tplConfig, migrate);
+            if (config.isLazyTenants()) {
+                lazyTenants.add(name.toLowerCase());
+            } else {
+                register(name, tplConfig, migrate);
+            }
         }
     }
 
@@ -137,16 +276,252 @@ public final class DBImpl extends AbstractDataSource implements ApplicationListe
             LOG.warn("Datasource with id %s is already registered", id);
             return;
         }
-        String url = config.getUrl().replace(TENANT_PLACEHOLDER, id).replace(TENANT_PLACEHOLDER.toUpperCase(), id);
         if (TENANT_PLACEHOLDER.equalsIgnoreCase(sourceId)) {
             registry.put(id.toLowerCase(), new DatasourceInfo(id, config));
         } else {
-            DataSource ds = DBHelper.createDataSource(DataSourceProperties.create(appConfig.getName(), id, url), config);
-            DatasourceInfo di = new DatasourceInfo(id, config, ds);
-            // di.configureTx(entityManagerFactoryBuilder, appConfig.getPkg());
-            registry.put(sourceId, di);
+            DatasourceInfo di = createDatasource(id, config);
             if (migrate) {
-                applyMigrations(id);
+                try {
+                    applyMigrations(di);
+                } catch (RuntimeException e) {
+                    di.close();
+                    throw e;
+                }
+            }
+            // Published once migrated, lookup() never returns a datasource whose schema is not ready
+            registry.put(sourceId, di);
+        }
+    }
+
+    private DatasourceInfo createDatasource(String id, DataSourceConfig config) {
+        String url = resolveUrl(config.getUrl(), id);
+        DataSource ds = createDataSource(DataSourceProperties.create(appConfig.getName(), id, url), config);
+        DatasourceInfo di = new DatasourceInfo(id, config, ds);
+        // di.configureTx(entityManagerFactoryBuilder, appConfig.getPkg());
+        if (CollectionUtil.isNotEmpty(config.getReplicas())) {
+            di.setReplicas(createReplicas(id, config.getReplicas()));
+        }
+        return di;
+    }
+
+    private DataSource createDataSource(DataSourceProperties props, DataSourceConfig link) {
+        if (!DbConfig.SHARED_POOLS.equalsIgnoreCase(config.getPooling()) || !props.hasSchema()) {
+            return DBHelper.createDataSource(props, link);
+        }
+        link.setName(props.getName());
+        SharedPool pool = acquireSharedPool(props);
+        if (DataSourceProperties.H2_DRIVER.equals(props.getDriverClassName())) {
+            // Done by the INIT clause of the url with dedicated pools
+            Jdbi.create(pool.getDataSource()).useHandle(handle -> handle.execute("CREATE SCHEMA IF NOT EXISTS " + props.getSchema()));
+        }
+        return new TenantSchemaDataSource(pool, props.getSchema(), config.getMaxTenantConnections());
+    }
+
+    private synchronized SharedPool acquireSharedPool(DataSourceProperties props) {
+        String key = props.getUsername() + "@" + props.getServerUrl();
+        SharedPool pool = sharedPools.get(key);
+        if (pool != null && pool.acquire()) {
+            return pool;
+        }
+        Map<String, String> properties = new HashMap<>();
+        if (props.getProperties() != null) {
+            properties.putAll(props.getProperties());
+        }
+        properties.putIfAbsent("maxPoolSize", String.valueOf(config.getSharedPoolSize()));
+        DataSourceProperties serverProps = DataSourceProperties.builder()
+            .name(appConfig.getName() + "_shared")
+            .url(props.getServerUrl())
+            .serverUrl(props.getServerUrl())
+            .username(props.getUsername())
+            .password(props.getPassword())
+            .driverClassName(props.getDriverClassName())
+            // Neutral schema, Hikari restores it when a connection switched to a tenant schema is returned
+            .schema(DataSourceProperties.H2_DRIVER.equals(props.getDriverClassName()) ? "PUBLIC" : "public")
+            .properties(properties)
+            .build();
+        pool = new SharedPool(props.getServerUrl(), DBHelper.createDataSource(serverProps));
+        pool.acquire();
+        sharedPools.put(key, pool);
+        LOG.info("Shared connection pool created for %s", props.getServerUrl());
+        return pool;
+    }
+
+    private static String resolveUrl(String url, String id) {
+        return url.replace(TENANT_PLACEHOLDER, id).replace(TENANT_PLACEHOLDER.toUpperCase(), id);
+    }
+
+    private ReplicaSet createReplicas(String id, List<String> urls) {
+        List<HikariDataSource> dataSources = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            String url = resolveUrl(urls.get(i), id);
+            dataSources.add(DBHelper.createDataSource(DataSourceProperties.create(appConfig.getName(), id + "_replica" + i, url)));
+        }
+        scheduleReplicaChecks();
+        LOG.info("[datasource:%s] %d read replica(s) registered", id, urls.size());
+        return new ReplicaSet(id, dataSources, config.getReplicaRouting());
+    }
+
+    private synchronized void scheduleReplicaChecks() {
+        if (replicaChecks) {
+            return;
+        }
+        replicaChecks = true;
+        schedule(config.getReplicaCheckInterval(), () -> {
+            for (DatasourceInfo info : registry.values()) {
+                if (info.hasReplicas()) {
+                    info.getReplicas().check(config.getReplicaMaxLag());
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates and drops journal partitions on every open datasource, on a single node at a time. Lazy tenants that
+     * are not open are left alone, their partitions are maintained when they are opened.
+     */
+    private void scheduleJournalMaintenance() {
+        journalPartitions = new JournalPartitions(tablesPrefix, config);
+        Runnable task = () -> withLock("journal-partitions", Duration.ofMinutes(30), Duration.ofSeconds(30), () -> {
+            for (DatasourceInfo info : new ArrayList<>(registry.values())) {
+                maintainJournal(info);
+            }
+        });
+        getScheduler().schedule(task, 1, TimeUnit.MINUTES);
+        schedule(config.getJournalMaintenanceInterval(), task);
+    }
+
+    /**
+     * Runs under a lock of its own, the datasource is also maintained when it is opened (lazy tenants), possibly by
+     * several nodes at once.
+     */
+    private void maintainJournal(DatasourceInfo info) {
+        if (info.getDataSource() == null || info.isClosing()) {
+            return;
+        }
+        try {
+            withLock("journal-partitions-" + info.getName(), Duration.ofMinutes(10), Duration.ofSeconds(30), () -> {
+                journalPartitions.maintain(info.getName(), info.getLink());
+            });
+        } catch (Exception e) {
+            LOG.error(e, "[datasource:%s] journal partitions maintenance failed", info.getName());
+        }
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (maintenance == null) {
+            maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "db-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return maintenance;
+    }
+
+    private void schedule(long interval, Runnable task) {
+        getScheduler().scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                LOG.error(e, "Datasource maintenance task failed");
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the tenant datasources unused for longer than the idle timeout, then the least recently used ones while
+     * above the open tenants cap. Datasources with connections in use are left open.
+     */
+    void closeIdleTenants() {
+        List<DatasourceInfo> open = registry.values().stream()
+            .filter(info -> lazyTenants.contains(info.getName()))
+            .sorted(Comparator.comparingLong(DatasourceInfo::getLastAccess))
+            .collect(Collectors.toList());
+        int excess = config.getMaxOpenTenants() > 0 ? open.size() - config.getMaxOpenTenants() : 0;
+        for (DatasourceInfo info : open) {
+            if (closeIfIdle(info, excess > 0)) {
+                excess--;
+            }
+        }
+    }
+
+    private boolean closeIfIdle(DatasourceInfo info, boolean excess) {
+        if (!isIdle(info, excess)) {
+            return false;
+        }
+        synchronized (openLocks.computeIfAbsent(info.getName(), k -> new Object())) {
+            if (registry.get(info.getName()) != info) {
+                return false;
+            }
+            // Flagged before the last check: a lookup touching the datasource meanwhile either is seen here, or sees
+            // the flag and waits for this decision (see lookup)
+            info.setClosing(true);
+            if (!isIdle(info, excess)) {
+                info.setClosing(false);
+                return false;
+            }
+            registry.remove(info.getName());
+            info.close();
+            LOG.info("Idle datasource %s closed", info.getName());
+            return true;
+        }
+    }
+
+    private boolean isIdle(DatasourceInfo info, boolean excess) {
+        long idle = System.currentTimeMillis() - info.getLastAccess();
+        boolean expired = idle > config.getTenantIdleTimeout() || (excess && idle > MIN_IDLE_TIME);
+        return expired && info.getActiveConnections() == 0;
+    }
+
+    private void autosizePools() {
+        for (DatasourceInfo info : registry.values()) {
+            if (info.getDataSource() != null) {
+                DBHelper.autosize(info.getDataSource(), config.getMinPoolSize(), config.getMaxPoolSize());
+            }
+        }
+    }
+
+    private DatasourceInfo open(String id) {
+        synchronized (openLocks.computeIfAbsent(id, k -> new Object())) {
+            DatasourceInfo info = registry.get(id);
+            if (info == null) {
+                long start = System.currentTimeMillis();
+                register(id, registry.get(TENANT_PLACEHOLDER).getConfig(), true);
+                info = registry.get(id);
+                LOG.info("Datasource %s opened in %d ms", id, System.currentTimeMillis() - start);
+                if (journalPartitions != null) {
+                    DatasourceInfo opened = info;
+                    getScheduler().execute(() -> maintainJournal(opened));
+                }
+            }
+            return info;
+        }
+    }
+
+    @Override
+    public void warmUp(String... tenants) {
+        for (String tenant : tenants) {
+            try (Connection ignored = lookup(TenantId.of(tenant).onPrimary()).getDataSource().getConnection()) {
+                LOG.debug("Datasource %s is warm", tenant);
+            } catch (Exception e) {
+                LOG.warn("Unable to warm up datasource %s: %s", tenant, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void unregister(String... names) {
+        for (String name : names) {
+            String sourceId = name.toLowerCase();
+            if (TENANT_PLACEHOLDER.equals(sourceId) || TenantId.DEFAULT_VALUE.equals(sourceId)) {
+                LOG.warn("Datasource %s can't be unregistered", name);
+                continue;
+            }
+            lazyTenants.remove(sourceId);
+            DatasourceInfo info = registry.remove(sourceId);
+            if (info != null) {
+                info.close();
+                LOG.info("Datasource %s unregistered", name);
             }
         }
     }
@@ -163,19 +538,73 @@ public final class DBImpl extends AbstractDataSource implements ApplicationListe
 
     @Override
     public DataSource determineTargetDataSource(TenantId tenant) {
+        DatasourceInfo info = lookup(tenant);
+        ReplicaSet.Replica replica = selectReplica(info, tenant, false);
+        return replica == null ? info.getDataSource() : replica.getDataSource();
+    }
+
+    @Override
+    public Jdbi getLink(TenantId tenant) {
+        DatasourceInfo info = lookup(tenant);
+        ReplicaSet.Replica replica = selectReplica(info, tenant, false);
+        return replica == null ? info.getLink() : replica.getLink();
+    }
+
+    @Override
+    public Jdbi getReadLink(TenantId tenant) {
+        DatasourceInfo info = lookup(tenant);
+        ReplicaSet.Replica replica = selectReplica(info, tenant, true);
+        return replica == null ? info.getLink() : replica.getLink();
+    }
+
+    /**
+     * A replica serves reads, read-only work and tenants routed to it, unless a write already happened on this
+     * thread or a transaction is running. Null means the primary.
+     */
+    private ReplicaSet.Replica selectReplica(DatasourceInfo info, TenantId tenant, boolean read) {
+        if (!info.hasReplicas() || tenant.getRoute() == TenantId.Route.PRIMARY || RoutingHolder.isPinned()) {
+            return null;
+        }
+        boolean readOnly = read || tenant.getRoute() == TenantId.Route.REPLICA || RoutingHolder.isReadOnly();
+        if (!readOnly || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return null;
+        }
+        return info.getReplicas().select();
+    }
+
+    @Override
+    public EntityCache getEntityCache() {
+        return entityCache;
+    }
+
+    private String resolveLookupKey(TenantId tenant) {
         Object lookupKey;
         if (tenant.equals(TenantId.CONTEXT)) {
             lookupKey = determineCurrentLookupKey();
         } else {
             lookupKey = tenant.getValue();
         }
-        if (lookupKey != null) {
-            lookupKey = lookupKey.toString().toLowerCase();
+        return lookupKey == null ? null : lookupKey.toString().toLowerCase();
+    }
+
+    private DatasourceInfo lookup(TenantId tenant) {
+        String lookupKey = resolveLookupKey(tenant);
+        DatasourceInfo info = lookupKey == null ? null : registry.get(lookupKey);
+        if (info != null) {
+            info.touch();
+            if (info.isClosing()) {
+                // Closed while idle (or about to be): open() waits for the decision and reopens it if needed
+                info = lazyTenants.contains(lookupKey) ? open(lookupKey) : null;
+            }
         }
-        if (!registry.containsKey(lookupKey)) {
+        if (info == null && lookupKey != null && lazyTenants.contains(lookupKey)) {
+            info = open(lookupKey);
+        }
+        if (info == null) {
             throw new InvalidTenantException("%s is not a valid database link", lookupKey);
         }
-        return registry.get(lookupKey).getDataSource();
+        info.touch();
+        return info;
     }
 
     private Object determineCurrentLookupKey() {
@@ -187,7 +616,7 @@ public final class DBImpl extends AbstractDataSource implements ApplicationListe
             throw new InvalidTenantException("Missing database link. Don't forget to set active tenant with TenantHolder.set()");
         }
         linkId = linkId.toLowerCase();
-        if (!registry.containsKey(linkId) && registry.containsKey(TENANT_PLACEHOLDER)) {
+        if (!tenantExists(linkId) && registry.containsKey(TENANT_PLACEHOLDER)) {
             throw new InvalidTenantException("No datasource registered for tenant %s", linkId);
         }
         return linkId;
@@ -195,13 +624,28 @@ public final class DBImpl extends AbstractDataSource implements ApplicationListe
 
     @Override
     public void onApplicationEvent(@NonNull ContextRefreshedEvent event) {
+        entityCache.setMetrics(context.getBeanProvider(MetricsRegistry.class).getIfAvailable());
+        entityCache.bind(context.getBeanProvider(PubSubMessenger.class).getIfAvailable(), appConfig.getName() + ".entity-cache");
         configureTenantsAsync();
+        if (config.isJournalPartitioned()) {
+            scheduleJournalMaintenance();
+        }
         EventBus.post(new DatabaseReadyEvent());
     }
 
+    @Override
+    public synchronized void destroy() {
+        if (tenantExecutor != null) {
+            tenantExecutor.shutdownNow();
+        }
+        if (maintenance != null) {
+            maintenance.shutdownNow();
+        }
+    }
+
     @Override
     public void createSchema(String tenantId, String schema) {
-        DataSource ds = registry.get(tenantId.toLowerCase()).getDataSource();
+        DataSource ds = lookup(TenantId.of(tenantId).onPrimary()).getDataSource();
         if (ds == null) {
             throw new TechnicalException("Datasource not registered: " + tenantId);
         }
@@ -223,26 +667,151 @@ public final class DBImpl extends AbstractDataSource implements ApplicationListe
         if (TENANT_PLACEHOLDER.equals(datasource)) {
             return;
         }
+        applyMigrations(registry.get(datasource.toLowerCase()));
+    }
 
-        String linkId = datasource.toLowerCase();
-        DatasourceInfo info = registry.get(linkId);
+    /**
+     * Migrates the datasource under the db-migration lock. When another node holds the lock, waits until that node
+     * has applied the same changelog or released the lock (at most its lease): the datasource is never marked as
+     * migrated, and thus published, before its schema is ready.
+     */
+    private void applyMigrations(DatasourceInfo info) {
+        String linkId = info.getName();
         if (info.isMigrated()) {
             return;
         }
-        synchronized (LOCK) {
-            withLock("db-migration-" + linkId, 60, 30, () -> {
-                String changelogPath = DBHelper.findChangeLogPath(appConfig.getName(), info.getConfig());
-                if (TextUtil.isNotEmpty(changelogPath)) {
-                    DBHelper.applyMigrations(info, changelogPath, tablesPrefix, appConfig.getName());
+        if (migrated.contains(linkId)) {
+            // Datasource reopened after being closed while idle
+            info.setMigrated(true);
+            return;
+        }
+        String changelogPath = DBHelper.findChangeLogPath(appConfig.getName(), info.getConfig());
+        String checksum = null;
+        if (TextUtil.isNotEmpty(changelogPath)) {
+            checksum = DBHelper.changelogChecksum(changelogPath, tablesPrefix, appConfig.getName(), getChangeLogParameters());
+            if (isUpToDate(info, changelogPath, checksum)) {
+                getMetrics().increment(CoreMetrics.DB_MIGRATION_SKIPPED, ImmutableMap.of(DATASOURCE, linkId));
+                LOG.debug("Changelog unchanged for %s, migrations skipped", linkId);
+                return;
+            }
+        }
+        String finalChecksum = checksum;
+        long deadline = System.currentTimeMillis() + MIGRATION_LOCK.plus(MIGRATION_LOCK_POLL).toMillis();
+        synchronized (migrationLocks.computeIfAbsent(linkId, k -> new Object())) {
+            while (true) {
+                withLock("db-migration-" + linkId, MIGRATION_LOCK, MIGRATION_LOCK.dividedBy(2), () -> {
+                    if (TextUtil.isNotEmpty(changelogPath)) {
+                        getMetrics().track(CoreMetrics.DB_MIGRATION, ImmutableMap.of(DATASOURCE, linkId), () -> {
+                            DBHelper.applyMigrations(info, changelogPath, tablesPrefix, appConfig.getName(), getChangeLogParameters());
+                        });
+                        DBHelper.writeChecksum(info.getDataSource(), tablesPrefix, changelogPath, finalChecksum);
+                    }
+                    info.setMigrated(true);
+                    migrated.add(linkId);
+                    LOG.info("Migrations applied for %s", linkId);
+                });
+                if (info.isMigrated()) {
+                    return;
                 }
-                info.setMigrated(true);
-                LOG.info("Migrations applied for %s", linkId);
-            });
+                // The lock is held by another node, migrating the same datasource
+                if (System.currentTimeMillis() > deadline) {
+                    throw new TechnicalException("Datasource %s is still being migrated by another node", linkId);
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(MIGRATION_LOCK_POLL.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TechnicalException("Interrupted while waiting for the migration of %s", linkId);
+                }
+                if (finalChecksum != null && isUpToDate(info, changelogPath, finalChecksum)) {
+                    LOG.info("Migrations applied by another node for %s", linkId);
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean isUpToDate(DatasourceInfo info, String changelogPath, String checksum) {
+        if (!checksum.equals(DBHelper.readChecksum(info.getDataSource(), tablesPrefix, changelogPath))) {
+            return false;
+        }
+        info.setMigrated(true);
+        migrated.add(info.getName());
+        return true;
+    }
+
+    private Map<String, String> getChangeLogParameters() {
+        return ImmutableMap.of(
+            "journal_partitioned", String.valueOf(config.isJournalPartitioned()),
+            "journal_partitioning", String.valueOf(config.getJournalPartitioning()).toLowerCase(),
+            "journal_partitions_ahead", String.valueOf(Math.max(1, config.getJournalPartitionsAhead()))
+        );
+    }
+
+    /**
+     * Migrates the given datasources with at most app.db.migration-threads at once and waits for all of them.
+     * The first failure is rethrown once every migration has completed.
+     *
+     * @param onMigrated called with each datasource once migrated
+     */
+    private void applyMigrationsInParallel(Collection<DatasourceInfo> datasources, Consumer<DatasourceInfo> onMigrated) {
+        List<DatasourceInfo> ids = datasources.stream()
+            .filter(info -> !TENANT_PLACEHOLDER.equals(info.getName()))
+            .collect(Collectors.toList());
+        if (ids.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int threads = Math.max(1, Math.min(config.getMigrationThreads(), ids.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "db-migration");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger completed = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (DatasourceInfo info : ids) {
+            futures.add(executor.submit(() -> {
+                applyMigrations(info);
+                onMigrated.accept(info);
+                LOG.info("Migrations progress: %d/%d", completed.incrementAndGet(), ids.size());
+            }));
+        }
+        executor.shutdown();
+        Throwable failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DatabaseException(e, "Interrupted while applying migrations");
+            } catch (ExecutionException e) {
+                LOG.error(e.getCause(), "Migrations failed for %s", ids.get(i).getName());
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        LOG.info("%d datasource(s) migrated in %d ms", ids.size(), System.currentTimeMillis() - start);
+        if (failure != null) {
+            throw new DatabaseException(failure, "Migrations failed");
         }
     }
 
+    private MetricsRegistry getMetrics() {
+        return context.getBeanProvider(MetricsRegistry.class).getIfAvailable(NoopMetricsRegistryImpl::new);
+    }
+
     @Override
     public boolean tenantExists(String tenant) {
+        String id = tenant.toLowerCase();
+        return registry.containsKey(id) || lazyTenants.contains(id);
+    }
+
+    /**
+     * @return whether the datasource of the tenant is open, lazy tenants are only opened on first use
+     */
+    boolean isOpen(String tenant) {
         return registry.containsKey(tenant.toLowerCase());
     }
 
@@ -268,8 +837,25 @@ public final class DBImpl extends AbstractDataSource implements ApplicationListe
         return new SimpleEntityRepository<E>(this, entityClass);
     }
 
+    @Override
+    public AsyncDataStore newAsyncStore() {
+        return new SimpleAsyncDataStore(this);
+    }
+
+    @Override
+    public <E> AsyncEntityRepository<E> newAsyncEntityRepository(Class<E> entityClass) {
+        return new SimpleAsyncEntityRepository<E>(this, entityClass);
+    }
+
+    @Override
+    public Executor getExecutor(TenantId tenant) {
+        return lookup(tenant).getExecutor(config.getAsyncQueueSize());
+    }
+
     public void applyMirations() {
-        registry.keySet().forEach(this::applyMigrations);
+        applyMigrationsInParallel(registry.values(), info -> {
+            // Already registered
+        });
     }
 
     @Override
@@ -308,8 +894,29 @@ public final class DBImpl extends AbstractDataSource implements ApplicationListe
 
         LOG.info("Tenants loaded: %d", tenants.size());
         DatasourceInfo info = registry.get(TENANT_PLACEHOLDER);
+        List<DatasourceInfo> created = new ArrayList<>();
         for (String tenant : tenants) {
-            register(tenant, info.getConfig(), true);
+            if (config.isLazyTenants() && info != null) {
+                lazyTenants.add(tenant.toLowerCase());
+            } else if (registry.containsKey(tenant.toLowerCase())) {
+                LOG.warn("Datasource with id %s is already registered", tenant);
+            } else {
+                created.add(createDatasource(tenant, info.getConfig()));
+            }
+        }
+        try {
+            // Each tenant is published as soon as its migrations are applied
+            applyMigrationsInParallel(created, di -> registry.putIfAbsent(di.getName(), di));
+        } finally {
+            for (DatasourceInfo di : created) {
+                if (registry.get(di.getName()) != di) {
+                    // Failed migrations, or registered meanwhile
+                    di.close();
+                }
+            }
+        }
+        if (CollectionUtil.isNotEmpty(config.getWarmTenants())) {
+            warmUp(config.getWarmTenants().toArray(new String[0]));
         }
         LOG.info("Database is now configured");
     }
@@ -1,7 +1,12 @@
 package dev.soffa.foundation.data.spring;
 
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import dev.soffa.foundation.data.DataSourceConfig;
+import dev.soffa.foundation.data.jdbi.JdbiFactory;
+import lombok.AccessLevel;
 import lombok.Getter;
+import org.jdbi.v3.core.Jdbi;
 import org.springframework.boot.orm.jpa.EntityManagerFactoryBuilder;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
@@ -9,6 +14,12 @@ import org.springframework.transaction.PlatformTransactionManager;
 
 import javax.sql.DataSource;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Getter
 public class DatasourceInfo {
@@ -16,9 +27,16 @@ public class DatasourceInfo {
     private final String name;
     private final DataSourceConfig config;
     private DataSource dataSource;
+    private Jdbi link;
     private boolean migrated;
     private LocalContainerEntityManagerFactoryBean em;
     private PlatformTransactionManager tx;
+    private ReplicaSet replicas;
+    private volatile long lastAccess = System.currentTimeMillis();
+    // Set while being closed, and once closed
+    private volatile boolean closing;
+    @Getter(AccessLevel.NONE)
+    private ExecutorService asyncExecutor;
 
     public DatasourceInfo(String name, DataSourceConfig config) {
         this.config = config;
@@ -28,7 +46,70 @@ public class DatasourceInfo {
     public DatasourceInfo(String name, DataSourceConfig config, DataSource dataSource) {
         this(name, config);
         this.dataSource = dataSource;
+        this.link = JdbiFactory.create(dataSource);
+    }
+
+    public void setReplicas(ReplicaSet replicas) {
+        this.replicas = replicas;
+    }
+
+    public void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    public void setClosing(boolean value) {
+        this.closing = value;
+    }
 
+    public int getActiveConnections() {
+        if (dataSource instanceof TenantSchemaDataSource) {
+            return ((TenantSchemaDataSource) dataSource).getActiveConnections();
+        }
+        if (dataSource instanceof HikariDataSource) {
+            HikariPoolMXBean pool = ((HikariDataSource) dataSource).getHikariPoolMXBean();
+            return pool == null ? 0 : pool.getActiveConnections();
+        }
+        return 0;
+    }
+
+    public int getMaxConnections() {
+        if (dataSource instanceof TenantSchemaDataSource) {
+            return ((TenantSchemaDataSource) dataSource).getMaxConnections();
+        }
+        if (dataSource instanceof HikariDataSource) {
+            return ((HikariDataSource) dataSource).getMaximumPoolSize();
+        }
+        return 1;
+    }
+
+    /**
+     * Executor of the asynchronous calls, with as many threads as the pool has connections so that queued calls wait
+     * here rather than in the pool. When the queue is full the call runs on the caller thread, once the executor is
+     * shut down (datasource closed) calls are rejected.
+     */
+    public synchronized ExecutorService getExecutor(int queueSize) {
+        if (asyncExecutor == null) {
+            int size = Math.max(1, getMaxConnections());
+            AtomicInteger counter = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), r -> {
+                Thread thread = new Thread(r, "db-async-" + name + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, (task, pool) -> {
+                if (pool.isShutdown()) {
+                    throw new RejectedExecutionException("Datasource " + name + " is closed");
+                }
+                task.run();
+            });
+            executor.allowCoreThreadTimeOut(true);
+            asyncExecutor = executor;
+        }
+        return asyncExecutor;
+    }
+
+    public boolean hasReplicas() {
+        return replicas != null;
     }
 
     public void configureTx(EntityManagerFactoryBuilder builder, String... packages) {
@@ -42,4 +123,25 @@ public class DatasourceInfo {
     public void setMigrated(boolean value) {
         this.migrated = value;
     }
+
+    public void close() {
+        closing = true;
+        synchronized (this) {
+            if (asyncExecutor != null) {
+                asyncExecutor.shutdown();
+                asyncExecutor = null;
+            }
+        }
+        link = null;
+        if (dataSource instanceof HikariDataSource) {
+            ((HikariDataSource) dataSource).close();
+        } else if (dataSource instanceof TenantSchemaDataSource) {
+            ((TenantSchemaDataSource) dataSource).close();
+        }
+        dataSource = null;
+        if (replicas != null) {
+            replicas.close();
+            replicas = null;
+        }
+    }
 }
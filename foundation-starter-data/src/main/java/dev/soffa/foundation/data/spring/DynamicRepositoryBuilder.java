@@ -9,6 +9,7 @@ import dev.soffa.foundation.data.DB;
 import dev.soffa.foundation.data.EntityRepository;
 import dev.soffa.foundation.data.SimpleDataStore;
 import dev.soffa.foundation.data.SimpleEntityRepository;
+import dev.soffa.foundation.error.NotImplementedException;
 import lombok.AllArgsConstructor;
 import lombok.SneakyThrows;
 import org.apache.commons.beanutils.MethodUtils;
@@ -17,10 +18,16 @@ import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ConfigurableApplicationContext;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import static org.reflections.scanners.Scanners.SubTypes;
@@ -30,6 +37,8 @@ import static org.reflections.scanners.Scanners.TypesAnnotated;
 class DynamicRepositoryBuilder {
 
     private static final Logger LOG = Logger.get(DynamicRepositoryBuilder.class);
+    private static final MethodType DISPATCH_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private static final Object[] NO_ARGS = new Object[0];
 
     private final ApplicationContext context;
     private final String basePackage;
@@ -68,17 +77,27 @@ class DynamicRepositoryBuilder {
             constructor.setAccessible(true);
             MethodHandles.Lookup instance = constructor.newInstance(resourceClass, MethodHandles.Lookup.PRIVATE);
 
+            // Filled once the proxy exists (default methods are bound to it), before the bean is registered
+            Map<Method, MethodHandle> dispatch = new HashMap<>();
             Object repositoryImpl = Proxy.newProxyInstance(
                 ClassLoader.getSystemClassLoader(),
                 new Class[]{resourceClass}, (proxy, method, args) -> {
-                    if (method.isDefault()) {
-                        return instance.unreflectSpecial(method, resourceClass).
-                            bindTo(proxy).
-                            invokeWithArguments(args);
-                    } else {
-                        return MethodUtils.invokeMethod(repo, method.getName(), args);
+                    MethodHandle handle = dispatch.get(method);
+                    if (handle == null) {
+                        throw new NotImplementedException("%s.%s is not implemented", resourceClass.getName(), method.getName());
                     }
+                    return handle.invokeExact(args == null ? NO_ARGS : args);
                 });
+            for (Method method : resourceClass.getMethods()) {
+                bind(dispatch, method, instance, resourceClass, repositoryImpl, repo);
+            }
+            for (Method method : Object.class.getMethods()) {
+                // equals, hashCode and toString: the only Object methods a proxy forwards
+                if (Modifier.isFinal(method.getModifiers())) {
+                    continue;
+                }
+                bind(dispatch, method, instance, resourceClass, repositoryImpl, repo);
+            }
             String beanName = resourceClass.getName() + "Impl";
             beanFactory.registerSingleton(beanName, repositoryImpl);
         }
@@ -86,4 +105,26 @@ class DynamicRepositoryBuilder {
 
     }
 
+    /**
+     * Resolves the target of a repository method once: the interface default method, or the matching method of the
+     * entity repository. Handles take the call arguments as an array, so that calls are dispatched with invokeExact.
+     */
+    private static void bind(Map<Method, MethodHandle> dispatch, Method method, Lookup lookup, Class<?> resourceClass,
+                             Object proxy, SimpleEntityRepository<?> repo) throws IllegalAccessException {
+        MethodHandle handle;
+        if (method.isDefault()) {
+            handle = lookup.unreflectSpecial(method, resourceClass).bindTo(proxy);
+        } else {
+            Method target = MethodUtils.getMatchingAccessibleMethod(repo.getClass(), method.getName(), method.getParameterTypes());
+            if (target == null) {
+                LOG.warn("No implementation found for %s.%s", resourceClass.getName(), method.getName());
+                return;
+            }
+            handle = MethodHandles.publicLookup().unreflect(target).bindTo(repo);
+        }
+        dispatch.put(method, handle.asFixedArity()
+            .asSpreader(Object[].class, method.getParameterCount())
+            .asType(DISPATCH_TYPE));
+    }
+
 }
@@ -0,0 +1,125 @@
+package dev.soffa.foundation.data.spring;
+
+import dev.soffa.foundation.commons.Logger;
+import dev.soffa.foundation.data.DbConfig;
+import dev.soffa.foundation.data.jdbi.JdbiFactory;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maintenance of the partitioned journal (Postgres): creates the upcoming partitions and drops the expired ones.
+ * Partitions are named after the first day of their range ({@code <table>_p20220301}). Expired rows of the legacy
+ * partition (the table as it was before partitioning) and of the default partition are deleted in small batches,
+ * the legacy partition is dropped once empty.
+ */
+final class JournalPartitions {
+
+    private static final Logger LOG = Logger.get(JournalPartitions.class);
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final int DELETE_BATCH = 10_000;
+    private static final String TABLE = "table";
+
+    private final String table;
+    private final boolean daily;
+    private final int ahead;
+    private final int retention;
+    private final Pattern partitionName;
+
+    JournalPartitions(String tablesPrefix, DbConfig config) {
+        this.table = (tablesPrefix == null ? "" : tablesPrefix) + "f_journal";
+        this.daily = DbConfig.PARTITION_DAILY.equalsIgnoreCase(config.getJournalPartitioning());
+        this.ahead = Math.max(1, config.getJournalPartitionsAhead());
+        this.retention = config.getJournalRetention();
+        this.partitionName = Pattern.compile(Pattern.quote(table) + "_p(\\d{8})");
+    }
+
+    void maintain(String datasource, Jdbi link) {
+        link.useHandle(handle -> {
+            if (!JdbiFactory.isPostgres(handle) || !isPartitioned(handle)) {
+                return;
+            }
+            LocalDate today = LocalDate.now(ZoneOffset.UTC);
+            LocalDate start = daily ? today : today.withDayOfMonth(1);
+            for (int i = 0; i <= ahead; i++) {
+                create(handle, datasource, start);
+                start = next(start);
+            }
+            if (retention > 0) {
+                expire(handle, datasource, today.minusDays(retention));
+            }
+        });
+    }
+
+    private boolean isPartitioned(Handle handle) {
+        return handle.createQuery("SELECT COUNT(*) FROM pg_partitioned_table p JOIN pg_class c ON c.oid = p.partrelid "
+                + "WHERE c.relname = :table AND c.relnamespace = current_schema()::regnamespace")
+            .bind(TABLE, table).mapTo(Integer.class).one() > 0;
+    }
+
+    private void create(Handle handle, String datasource, LocalDate start) {
+        String partition = table + "_p" + SUFFIX.format(start);
+        try {
+            handle.execute("CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF " + table
+                + " FOR VALUES FROM ('" + start + "') TO ('" + next(start) + "')");
+        } catch (Exception e) {
+            // Typically rows of that range in the default partition, or a partition of another granularity
+            LOG.warn("[datasource:%s] unable to create journal partition %s: %s", datasource, partition, e.getMessage());
+        }
+    }
+
+    private void expire(Handle handle, String datasource, LocalDate cutoff) {
+        List<String> partitions = handle.createQuery("SELECT c.relname FROM pg_inherits i "
+                + "JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent "
+                + "WHERE p.relname = :table AND p.relnamespace = current_schema()::regnamespace")
+            .bind(TABLE, table).mapTo(String.class).list();
+        for (String partition : partitions) {
+            Matcher matcher = partitionName.matcher(partition);
+            if (!matcher.matches()) {
+                continue;
+            }
+            LocalDate start = LocalDate.parse(matcher.group(1), SUFFIX);
+            // A partition starting on the 1st may be a monthly one (granularity changed), the longest range is assumed
+            LocalDate end = daily && start.getDayOfMonth() != 1 ? start.plusDays(1) : start.plusMonths(1);
+            if (!end.isAfter(cutoff)) {
+                handle.execute("DROP TABLE IF EXISTS " + partition);
+                LOG.info("[datasource:%s] expired journal partition %s dropped", datasource, partition);
+            }
+        }
+        Instant limit = cutoff.atStartOfDay(ZoneOffset.UTC).toInstant();
+        String legacyPartition = table + "_legacy";
+        if (partitions.contains(legacyPartition)) {
+            delete(handle, legacyPartition, limit);
+            if (!handle.createQuery("SELECT EXISTS (SELECT 1 FROM " + legacyPartition + ")").mapTo(Boolean.class).one()) {
+                handle.execute("DROP TABLE IF EXISTS " + legacyPartition);
+                LOG.info("[datasource:%s] expired journal partition %s dropped", datasource, legacyPartition);
+            }
+        }
+        String defaultPartition = table + "_default";
+        if (partitions.contains(defaultPartition)) {
+            delete(handle, defaultPartition, limit);
+        }
+    }
+
+    private void delete(Handle handle, String partition, Instant cutoff) {
+        String sql = "DELETE FROM " + partition + " WHERE ctid IN (SELECT ctid FROM " + partition
+            + " WHERE created < :cutoff LIMIT " + DELETE_BATCH + ")";
+        int deleted;
+        do {
+            deleted = handle.createUpdate(sql).bind("cutoff", cutoff).execute();
+        } while (deleted == DELETE_BATCH);
+    }
+
+    private LocalDate next(LocalDate start) {
+        return daily ? start.plus(1, ChronoUnit.DAYS) : start.plusMonths(1);
+    }
+
+}
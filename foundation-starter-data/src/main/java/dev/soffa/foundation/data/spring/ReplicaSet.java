@@ -0,0 +1,120 @@
+package dev.soffa.foundation.data.spring;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import dev.soffa.foundation.commons.Logger;
+import dev.soffa.foundation.data.DbConfig;
+import dev.soffa.foundation.data.jdbi.JdbiFactory;
+import lombok.Getter;
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read replicas of a datasource. Only replicas that passed the last health and lag check are selected.
+ */
+public class ReplicaSet {
+
+    private static final Logger LOG = Logger.get(ReplicaSet.class);
+    // Zero when the replica has replayed everything it received, otherwise the age of the last replayed transaction
+    private static final String PG_LAG_QUERY = "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+        + "ELSE COALESCE(EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) * 1000, 0) END";
+
+    private final String name;
+    private final List<Replica> replicas;
+    private final boolean leastBusy;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    public ReplicaSet(String name, List<HikariDataSource> dataSources, String routing) {
+        this.name = name;
+        this.leastBusy = DbConfig.LEAST_BUSY.equalsIgnoreCase(routing);
+        this.replicas = new ArrayList<>();
+        for (HikariDataSource ds : dataSources) {
+            replicas.add(new Replica(ds));
+        }
+    }
+
+    /**
+     * @return the selected replica, null when none is available
+     */
+    public Replica select() {
+        if (leastBusy) {
+            Replica selected = null;
+            int min = Integer.MAX_VALUE;
+            for (Replica replica : replicas) {
+                int active = replica.getActiveConnections();
+                if (replica.isAvailable() && active < min) {
+                    selected = replica;
+                    min = active;
+                }
+            }
+            return selected;
+        }
+        int size = replicas.size();
+        int start = counter.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.isAvailable()) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    public void check(long maxLag) {
+        for (Replica replica : replicas) {
+            boolean available;
+            try {
+                long lag = replica.getLink().withHandle(handle -> {
+                    if (!JdbiFactory.isPostgres(handle)) {
+                        handle.execute("select 1");
+                        return 0L;
+                    }
+                    return handle.createQuery(PG_LAG_QUERY).mapTo(Double.class).first().longValue();
+                });
+                available = lag <= maxLag;
+                if (!available && replica.isAvailable()) {
+                    LOG.warn("[datasource:%s] replica %s is lagging by %d ms, removed from rotation", name, replica.getName(), lag);
+                }
+            } catch (Exception e) {
+                available = false;
+                if (replica.isAvailable()) {
+                    LOG.warn("[datasource:%s] replica %s is unreachable, removed from rotation: %s", name, replica.getName(), e.getMessage());
+                }
+            }
+            if (available && !replica.isAvailable()) {
+                LOG.info("[datasource:%s] replica %s is back in rotation", name, replica.getName());
+            }
+            replica.available = available;
+        }
+    }
+
+    public void close() {
+        for (Replica replica : replicas) {
+            replica.dataSource.close();
+        }
+    }
+
+    @Getter
+    public static class Replica {
+
+        private final String name;
+        private final HikariDataSource dataSource;
+        private final Jdbi link;
+        private volatile boolean available = true;
+
+        Replica(HikariDataSource dataSource) {
+            this.name = dataSource.getPoolName();
+            this.dataSource = dataSource;
+            this.link = JdbiFactory.create(dataSource);
+        }
+
+        int getActiveConnections() {
+            HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            return pool == null ? 0 : pool.getActiveConnections();
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+package dev.soffa.foundation.data.spring;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.Getter;
+
+/**
+ * Physical pool shared by the datasources of all schemas hosted on the same server.
+ */
+@Getter
+public final class SharedPool {
+
+    private final String serverUrl;
+    private final HikariDataSource dataSource;
+    private int users;
+
+    public SharedPool(String serverUrl, HikariDataSource dataSource) {
+        this.serverUrl = serverUrl;
+        this.dataSource = dataSource;
+    }
+
+    synchronized boolean acquire() {
+        if (dataSource.isClosed()) {
+            return false;
+        }
+        users++;
+        return true;
+    }
+
+    synchronized void release() {
+        users--;
+        if (users <= 0) {
+            dataSource.close();
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package dev.soffa.foundation.data.spring;
+
+import com.zaxxer.hikari.HikariDataSource;
+import dev.soffa.foundation.error.NotImplementedException;
+import lombok.Getter;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Datasource of a single schema, backed by a {@link SharedPool}. The schema is switched when a connection is checked
+ * out (Hikari restores the neutral schema of the shared pool when it is returned, so that connections used directly
+ * on the pool never run in the schema of the last tenant) and a tenant never holds more than {@code maxConnections}
+ * connections of the shared pool at once.
+ */
+public final class TenantSchemaDataSource extends AbstractDataSource {
+
+    @Getter
+    private final String schema;
+    @Getter
+    private final SharedPool pool;
+    private final Semaphore permits;
+    @Getter
+    private final int maxConnections;
+
+    public TenantSchemaDataSource(SharedPool pool, String schema, int maxConnections) {
+        super();
+        this.pool = pool;
+        this.schema = schema;
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    public int getActiveConnections() {
+        return maxConnections - permits.availablePermits();
+    }
+
+    public HikariDataSource getPoolDataSource() {
+        return pool.getDataSource();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        HikariDataSource ds = pool.getDataSource();
+        try {
+            if (!permits.tryAcquire(ds.getConnectionTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException(String.format(
+                    "%s - schema %s reached its limit of %d connections", ds.getPoolName(), schema, maxConnections));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection", e);
+        }
+        try {
+            Connection connection = ds.getConnection();
+            connection.setSchema(schema);
+            return wrap(connection);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) {
+        throw new NotImplementedException("Not supported");
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return pool.getDataSource().unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || pool.getDataSource().isWrapperFor(iface);
+    }
+
+    public void close() {
+        pool.release();
+    }
+
+    private Connection wrap(Connection connection) {
+        AtomicBoolean released = new AtomicBoolean(false);
+        InvocationHandler handler = (proxy, method, args) -> {
+            if ("close".equals(method.getName()) && released.compareAndSet(false, true)) {
+                try {
+                    connection.close();
+                } finally {
+                    permits.release();
+                }
+                return null;
+            }
+            return invoke(connection, method, args);
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+    }
+
+    private static Object invoke(Connection connection, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+}
@@ -1,16 +1,65 @@
 package dev.soffa.foundation.data.spring.features;
 
+import dev.soffa.foundation.config.AppConfig;
+import dev.soffa.foundation.context.ContextHolder;
 import dev.soffa.foundation.data.DB;
+import dev.soffa.foundation.data.DataStore;
+import dev.soffa.foundation.data.DbConfig;
+import dev.soffa.foundation.data.SimpleDataStore;
 import dev.soffa.foundation.data.SimpleEntityRepository;
 import dev.soffa.foundation.extra.journal.Journal;
 import dev.soffa.foundation.extra.journal.JournalRepository;
+import dev.soffa.foundation.metric.MetricsRegistry;
+import dev.soffa.foundation.metric.NoopMetricsRegistryImpl;
+import dev.soffa.foundation.model.TenantId;
+import dev.soffa.foundation.multitenancy.TenantHolder;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Component;
 
+import java.util.Date;
+
 @Component
-public class JournalRepositoryImpl extends SimpleEntityRepository<Journal> implements JournalRepository {
+public class JournalRepositoryImpl extends SimpleEntityRepository<Journal> implements JournalRepository, DisposableBean {
+
+    private final JournalWriter writer;
 
-    public JournalRepositoryImpl(DB db) {
+    public JournalRepositoryImpl(DB db, AppConfig appConfig, ObjectProvider<MetricsRegistry> metrics) {
         super(db, Journal.class);
+        DbConfig config = db.getConfig();
+        if (config.isJournalAsync()) {
+            DataStore ds = new SimpleDataStore(db);
+            this.writer = new JournalWriter(appConfig.getName(), config, metrics.getIfAvailable(NoopMetricsRegistryImpl::new), (tenant, rows) -> {
+                TenantHolder.use(tenant, () -> {
+                    ds.insertAll(TenantId.CONTEXT, rows);
+                });
+            });
+        } else {
+            this.writer = null;
+        }
+    }
+
+    @Override
+    public void append(Journal journal) {
+        if (writer == null) {
+            insert(journal);
+            return;
+        }
+        // The context, tenant and date are resolved here, they are not available on the writer thread
+        ContextHolder.get().ifPresent(journal::setContext);
+        if (journal.getCreated() == null) {
+            journal.setCreated(new Date());
+        }
+        if (!writer.append(TenantHolder.get().orElse(null), journal)) {
+            insert(journal);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (writer != null) {
+            writer.close();
+        }
     }
 
 }
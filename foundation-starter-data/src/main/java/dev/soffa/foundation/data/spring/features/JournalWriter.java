@@ -0,0 +1,316 @@
+package dev.soffa.foundation.data.spring.features;
+
+import dev.soffa.foundation.commons.Logger;
+import dev.soffa.foundation.commons.Mappers;
+import dev.soffa.foundation.commons.TextUtil;
+import dev.soffa.foundation.context.ContextHolder;
+import dev.soffa.foundation.data.DbConfig;
+import dev.soffa.foundation.extra.journal.Journal;
+import dev.soffa.foundation.metric.CoreMetrics;
+import dev.soffa.foundation.metric.MetricsRegistry;
+import lombok.SneakyThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * Background writer of journal rows. Rows are buffered in a bounded lock-free queue and written by a single flusher
+ * thread, grouped by tenant, when a batch is complete or every flush interval. Failed writes are retried with backoff
+ * and then spilled, so that no row is lost to a transient database error. The buffer is drained on close.
+ */
+public final class JournalWriter implements AutoCloseable {
+
+    private static final Logger LOG = Logger.get(JournalWriter.class);
+    private static final long BLOCK_WAIT = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final int WRITE_ATTEMPTS = 3;
+    private static final long WRITE_BACKOFF = 100;
+    private static final long REPLAY_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final String TENANT = "tenant";
+    private static final String JOURNAL = "journal";
+
+    private final Queue<Entry> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final int batchSize;
+    private final long flushInterval;
+    private final long drainTimeout;
+    private final String overflow;
+    private final Path spillFile;
+    private final MetricsRegistry metrics;
+    private final BiConsumer<String, List<Journal>> sink;
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    /**
+     * @param application name of the application, the default spill file is specific to it
+     * @param sink        writes the rows of a tenant (null for the default one)
+     */
+    public JournalWriter(String application, DbConfig config, MetricsRegistry metrics, BiConsumer<String, List<Journal>> sink) {
+        this.capacity = Math.max(1, config.getJournalBufferSize());
+        this.batchSize = Math.max(1, config.getJournalBatchSize());
+        this.flushInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.getJournalFlushInterval()));
+        this.drainTimeout = config.getJournalDrainTimeout();
+        this.overflow = TextUtil.isEmpty(config.getJournalOverflow())
+            ? DbConfig.OVERFLOW_BLOCK : config.getJournalOverflow().toLowerCase();
+        this.spillFile = TextUtil.isEmpty(config.getJournalSpillFile())
+            ? defaultSpillFile(application)
+            : Paths.get(config.getJournalSpillFile());
+        this.metrics = metrics;
+        this.sink = sink;
+        this.flusher = new Thread(this::run, "journal-writer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // Applications sharing a host must not replay each other's rows at startup
+    private static Path defaultSpillFile(String application) {
+        String name = TextUtil.isEmpty(application) ? "journal-spill.jsonl"
+            : "journal-spill-" + application.replaceAll("[^A-Za-z0-9._-]", "_") + ".jsonl";
+        return Paths.get(System.getProperty("java.io.tmpdir"), name);
+    }
+
+    /**
+     * @return false when the writer is closed, the row must then be written by the caller
+     */
+    public boolean append(String tenant, Journal journal) {
+        Entry entry = new Entry(tenant, journal);
+        while (!reserve()) {
+            if (closed) {
+                return false;
+            }
+            if (DbConfig.OVERFLOW_DROP.equals(overflow)) {
+                metrics.increment(CoreMetrics.JOURNAL_DROPPED);
+                return true;
+            }
+            if (DbConfig.OVERFLOW_SPILL.equals(overflow)) {
+                spill(Collections.singletonList(entry));
+                return true;
+            }
+            LockSupport.unpark(flusher);
+            LockSupport.parkNanos(BLOCK_WAIT);
+        }
+        buffer.add(entry);
+        // The final flush of close() may have run before the row was added, it is then taken back unless already written
+        if (closed && buffer.remove(entry)) {
+            size.decrementAndGet();
+            return false;
+        }
+        if (size.get() >= batchSize) {
+            LockSupport.unpark(flusher);
+        }
+        return true;
+    }
+
+    private boolean reserve() {
+        int current;
+        do {
+            current = size.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void run() {
+        // The flusher inherits the context of the thread that created it, rows carry their own
+        ContextHolder.clear();
+        replaySpilled();
+        long nextReplay = System.currentTimeMillis() + REPLAY_INTERVAL;
+        while (!closed) {
+            if (size.get() < batchSize) {
+                LockSupport.parkNanos(this, flushInterval);
+            }
+            flush();
+            if (System.currentTimeMillis() >= nextReplay) {
+                // Rows spilled by failed writes or a full buffer
+                replaySpilled();
+                nextReplay = System.currentTimeMillis() + REPLAY_INTERVAL;
+            }
+        }
+        flush();
+    }
+
+    private void flush() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (true) {
+            batch.clear();
+            Entry entry;
+            while (batch.size() < batchSize && (entry = buffer.poll()) != null) {
+                size.decrementAndGet();
+                batch.add(entry);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            write(batch);
+            metrics.gauge(CoreMetrics.JOURNAL_BUFFER, size.get(), Collections.emptyMap());
+        }
+    }
+
+    private void write(List<Entry> batch) {
+        Map<String, List<Entry>> byTenant = new LinkedHashMap<>();
+        for (Entry entry : batch) {
+            byTenant.computeIfAbsent(entry.tenant == null ? "" : entry.tenant, k -> new ArrayList<>()).add(entry);
+        }
+        for (Map.Entry<String, List<Entry>> e : byTenant.entrySet()) {
+            List<Journal> rows = new ArrayList<>(e.getValue().size());
+            for (Entry entry : e.getValue()) {
+                rows.add(entry.journal);
+            }
+            String tenant = TextUtil.isEmpty(e.getKey()) ? null : e.getKey();
+            if (!write(tenant, rows)) {
+                spill(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the rows of a tenant, the write is retried with backoff unless the writer is closing.
+     *
+     * @return false when every attempt failed
+     */
+    private boolean write(String tenant, List<Journal> rows) {
+        long backoff = WRITE_BACKOFF;
+        for (int attempt = 1;; attempt++) {
+            try {
+                metrics.timed(CoreMetrics.JOURNAL_WRITE + MetricsRegistry.DURATION_SUFFIX, Collections.emptyMap(), () -> {
+                    sink.accept(tenant, rows);
+                });
+                metrics.increment(CoreMetrics.JOURNAL_WRITE, rows.size(), Collections.emptyMap());
+                return true;
+            } catch (Exception ex) {
+                metrics.increment(CoreMetrics.JOURNAL_WRITE + MetricsRegistry.FAILED_SUFFIX, rows.size(), Collections.emptyMap());
+                if (attempt >= WRITE_ATTEMPTS || closed) {
+                    LOG.error(ex, "Unable to write %d journal rows, spilled to %s", rows.size(), spillFile);
+                    return false;
+                }
+                LOG.warn("Unable to write %d journal rows (attempt %d), retrying: %s", rows.size(), attempt, ex.getMessage());
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            backoff *= 2;
+        }
+    }
+
+    private synchronized void spill(List<Entry> entries) {
+        List<String> lines = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            Map<String, Object> line = new HashMap<>();
+            line.put(TENANT, entry.tenant);
+            line.put(JOURNAL, entry.journal);
+            lines.add(Mappers.JSON_FULLACCESS_SNAKE.serialize(line));
+        }
+        try {
+            Files.write(spillFile, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            metrics.increment(CoreMetrics.JOURNAL_SPILLED, entries.size(), Collections.emptyMap());
+        } catch (IOException e) {
+            LOG.error(e, "Unable to spill %d journal rows to %s", entries.size(), spillFile);
+            metrics.increment(CoreMetrics.JOURNAL_DROPPED, entries.size(), Collections.emptyMap());
+        }
+    }
+
+    /**
+     * Writes the spilled rows (of a previous run or of failed writes). Rows that fail again are spilled again.
+     */
+    private void replaySpilled() {
+        if (!Files.exists(spillFile)) {
+            return;
+        }
+        Path replay = spillFile.resolveSibling(spillFile.getFileName() + ".replay");
+        List<String> lines;
+        synchronized (this) {
+            try {
+                Files.move(spillFile, replay, StandardCopyOption.REPLACE_EXISTING);
+                lines = Files.readAllLines(replay, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                LOG.error(e, "Unable to read spilled journal rows from %s", spillFile);
+                return;
+            }
+        }
+        LOG.info("Writing %d spilled journal rows from %s", lines.size(), spillFile);
+        List<Entry> batch = new ArrayList<>(batchSize);
+        for (String line : lines) {
+            if (TextUtil.isEmpty(line)) {
+                continue;
+            }
+            try {
+                Map<String, Object> value = Mappers.JSON_FULLACCESS_SNAKE.deserializeMap(line);
+                batch.add(new Entry((String) value.get(TENANT),
+                    Mappers.JSON_FULLACCESS_SNAKE.convert(value.get(JOURNAL), Journal.class)));
+            } catch (Exception e) {
+                LOG.error(e, "Invalid spilled journal row skipped: %s", line);
+                continue;
+            }
+            if (batch.size() == batchSize) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+        delete(replay);
+    }
+
+    @SneakyThrows
+    private static void delete(Path path) {
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Stops accepting rows and waits (at most the drain timeout) for the buffered ones to be written.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(drainTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            LOG.warn("Journal writer not drained after %d ms, %d rows pending", drainTimeout, size.get());
+        } else {
+            // Rows appended while the flusher was stopping
+            flush();
+        }
+    }
+
+    private static final class Entry {
+
+        private final String tenant;
+        private final Journal journal;
+
+        Entry(String tenant, Journal journal) {
+            this.tenant = tenant;
+            this.journal = journal;
+        }
+    }
+
+}
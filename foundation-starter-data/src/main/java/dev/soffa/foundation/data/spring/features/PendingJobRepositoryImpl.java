@@ -1,33 +1,97 @@
 package dev.soffa.foundation.data.spring.features;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+import dev.soffa.foundation.commons.IdGenerator;
 import dev.soffa.foundation.commons.Logger;
 import dev.soffa.foundation.data.DB;
+import dev.soffa.foundation.data.DbConfig;
+import dev.soffa.foundation.data.EntityInfo;
+import dev.soffa.foundation.data.RoutingHolder;
 import dev.soffa.foundation.data.SimpleEntityRepository;
+import dev.soffa.foundation.data.jdbi.BeanMapper;
+import dev.soffa.foundation.data.jdbi.JdbiFactory;
+import dev.soffa.foundation.data.jdbi.JdbiProvider;
 import dev.soffa.foundation.extra.jobs.PendingJob;
 import dev.soffa.foundation.extra.jobs.PendingJobRepository;
+import dev.soffa.foundation.metric.CoreMetrics;
+import dev.soffa.foundation.metric.MetricsRegistry;
+import dev.soffa.foundation.metric.NoopMetricsRegistryImpl;
+import dev.soffa.foundation.model.TenantId;
+import dev.soffa.foundation.multitenancy.TenantHolder;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Component;
 
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 
+/**
+ * Queue engine of the pending jobs. Due jobs are claimed in batches with a lease (locked_until/locked_by), so that
+ * several nodes can consume the same operation without processing a job twice, and a job left by a crashed node is
+ * claimed again once its lease has expired. Failed jobs are rescheduled with an exponential backoff (next_run_at).
+ */
 @Component
-public class PendingJobRepositoryImpl extends SimpleEntityRepository<PendingJob> implements PendingJobRepository {
+public class PendingJobRepositoryImpl extends SimpleEntityRepository<PendingJob> implements PendingJobRepository, DisposableBean {
 
     private static final Logger LOG = Logger.get(PendingJobRepository.class);
     private static final String OPERATION = "operation";
     private static final String SUBJECT = "subject";
+    private static final String OWNER = "owner";
+    private static final String TENANT = "tenant";
+    private static final String NOW = "now";
     private static final int RETRIES_TRESHOLD = 10;
 
+    private final DB db;
+    private final MetricsRegistry metrics;
+    private final String owner = IdGenerator.shortUUID("node_");
+    private final Map<String, ExecutorService> workers = new ConcurrentHashMap<>();
+    private final String selectDueSql;
+    private final String claimSql;
+    private final String pgClaimSql;
+    private final String ackSql;
+    private final String rescheduleSql;
+    private final String statsSql;
 
-    public PendingJobRepositoryImpl(DB db) {
+    public PendingJobRepositoryImpl(DB db, ObjectProvider<MetricsRegistry> metrics) {
         super(db, PendingJob.class);
+        this.db = db;
+        this.metrics = metrics.getIfAvailable(NoopMetricsRegistryImpl::new);
+        String table = EntityInfo.get(PendingJob.class, db.getTablesPrefix()).getRawTableName();
+        String due = "operation = :operation AND (next_run_at IS NULL OR next_run_at <= :now) "
+            + "AND (locked_until IS NULL OR locked_until < :now)";
+        this.selectDueSql = "SELECT * FROM " + table + " WHERE " + due + " ORDER BY created LIMIT :limit";
+        this.claimSql = "UPDATE " + table + " SET locked_until = :leaseUntil, locked_by = :owner "
+            + "WHERE id = :id AND (locked_until IS NULL OR locked_until < :now)";
+        this.pgClaimSql = "UPDATE " + table + " SET locked_until = :leaseUntil, locked_by = :owner WHERE id IN ("
+            + "SELECT id FROM " + table + " WHERE " + due + " ORDER BY created LIMIT :limit FOR UPDATE SKIP LOCKED"
+            + ") RETURNING *";
+        this.ackSql = "DELETE FROM " + table + " WHERE id = :id AND locked_by = :owner";
+        this.rescheduleSql = "UPDATE " + table + " SET errors_count = :errorsCount, last_error = :lastError, "
+            + "next_run_at = :nextRunAt, locked_until = NULL, locked_by = NULL WHERE id = :id AND locked_by = :owner";
+        this.statsSql = "SELECT COUNT(*), MIN(created) FROM " + table + " WHERE operation = :operation";
     }
 
     @Override
     public boolean isPending(String operation, String subject) {
-        return count(ImmutableMap.of(OPERATION, operation, SUBJECT, subject)) > 0;
+        return exists(ImmutableMap.of(OPERATION, operation, SUBJECT, subject));
     }
 
     @Override
@@ -44,26 +108,188 @@ public class PendingJobRepositoryImpl extends SimpleEntityRepository<PendingJob>
         return delete(job) > 0;
     }
 
+    /**
+     * Processes the due jobs of the operation on its worker pool, batch after batch, until none can be claimed.
+     * Jobs are deleted when the consumer returns true, rescheduled otherwise (as a failure when it throws).
+     */
     @Override
     public void consume(String operation, Function<PendingJob, Boolean> consumer) {
-        List<PendingJob> jobs = find(ImmutableMap.of(OPERATION, operation));
-        if (jobs == null || jobs.isEmpty()) {
-            return;
-        }
+        DbConfig config = db.getConfig();
+        int batchSize = Math.max(1, config.getJobBatchSize());
+        Jdbi link = db instanceof JdbiProvider
+            ? ((JdbiProvider) db).getLink(TenantId.CONTEXT)
+            : JdbiFactory.create(db.determineTargetDataSource(TenantId.CONTEXT));
+        String tenant = TenantHolder.get().orElse(null);
+        // Gauges are per tenant, the tenants would otherwise overwrite each other's values
+        Map<String, Object> tags = ImmutableMap.of(OPERATION, operation,
+            TENANT, tenant == null ? TenantId.DEFAULT_VALUE : tenant);
+        List<PendingJob> jobs;
+        do {
+            jobs = claim(link, operation, batchSize, config.getJobLease());
+            if (!jobs.isEmpty()) {
+                process(link, tenant, operation, jobs, consumer, tags);
+            }
+        } while (jobs.size() == batchSize);
+        recordStats(link, operation, tags);
+    }
+
+    private List<PendingJob> claim(Jdbi link, String operation, int limit, long lease) {
+        EntityInfo<PendingJob> info = EntityInfo.get(PendingJob.class, db.getTablesPrefix());
+        Instant now = Instant.now();
+        Instant leaseUntil = now.plusMillis(lease);
+        return link.inTransaction(h -> {
+            if (JdbiFactory.isPostgres(h)) {
+                return h.createQuery(pgClaimSql)
+                    .bind(OPERATION, operation).bind(NOW, now).bind("limit", limit)
+                    .bind("leaseUntil", leaseUntil).bind(OWNER, owner)
+                    .map(BeanMapper.of(info)).list();
+            }
+            // Without SKIP LOCKED, candidates are claimed with a conditional update: a job claimed meanwhile by
+            // another node is simply not updated
+            List<PendingJob> candidates = h.createQuery(selectDueSql)
+                .bind(OPERATION, operation).bind(NOW, now).bind("limit", limit)
+                .map(BeanMapper.of(info)).list();
+            if (candidates.isEmpty()) {
+                return candidates;
+            }
+            PreparedBatch batch = h.prepareBatch(claimSql);
+            for (PendingJob job : candidates) {
+                batch.bind("id", job.getId()).bind(NOW, now).bind("leaseUntil", leaseUntil).bind(OWNER, owner).add();
+            }
+            int[] updated = batch.execute();
+            List<PendingJob> claimed = new ArrayList<>();
+            for (int i = 0; i < updated.length; i++) {
+                if (updated[i] > 0) {
+                    claimed.add(candidates.get(i));
+                }
+            }
+            return claimed;
+        });
+    }
+
+    private void process(Jdbi link, String tenant, String operation, List<PendingJob> jobs,
+                         Function<PendingJob, Boolean> consumer, Map<String, Object> tags) {
+        ExecutorService executor = getWorkers(operation);
+        ConcurrentLinkedQueue<PendingJob> done = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<PendingJob> retries = new ConcurrentLinkedQueue<>();
+        List<Future<?>> tasks = new ArrayList<>(jobs.size());
         for (PendingJob job : jobs) {
-            try {
-                if (consumer.apply(job)) {
-                    delete(job);
+            tasks.add(executor.submit(() -> RoutingHolder.unitOfWork(() -> TenantHolder.use(tenant, () -> {
+                try {
+                    if (Boolean.TRUE.equals(consumer.apply(job))) {
+                        done.add(job);
+                    } else {
+                        retries.add(job);
+                    }
+                } catch (Exception e) {
+                    LOG.error(e);
+                    job.failed(e.getMessage());
+                    if (job.getErrorsCount() > RETRIES_TRESHOLD) {
+                        LOG.warn("Job %s has failed %d times !", job.getId(), job.getErrorsCount());
+                    }
+                    retries.add(job);
                 }
-            } catch (Exception e) {
-                LOG.error(e);
-                job.failed(e.getMessage());
-                if (job.getErrorsCount() > RETRIES_TRESHOLD) {
-                    LOG.warn("Job %s has failed %d times !", job.getId(), job.getErrorsCount());
+            }))));
+        }
+        boolean interrupted = false;
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                break;
+            } catch (ExecutionException e) {
+                LOG.error(e.getCause());
+            }
+        }
+        if (interrupted) {
+            // Jobs not started yet are cancelled and released when their lease expires. The running ones complete and
+            // are acknowledged, they would otherwise run again once their lease expires.
+            tasks.forEach(task -> task.cancel(false));
+            for (Future<?> task : tasks) {
+                if (!task.isCancelled()) {
+                    try {
+                        Uninterruptibles.getUninterruptibly(task);
+                    } catch (ExecutionException e) {
+                        LOG.error(e.getCause());
+                    }
                 }
-                insert(job);
             }
         }
+        link.useTransaction(h -> {
+            acknowledge(h, done);
+            reschedule(h, retries);
+        });
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        metrics.increment(CoreMetrics.PENDING_JOBS, done.size(), tags);
+        metrics.increment(CoreMetrics.PENDING_JOBS + MetricsRegistry.FAILED_SUFFIX, retries.size(), tags);
+    }
+
+    private void acknowledge(Handle handle, Iterable<PendingJob> jobs) {
+        PreparedBatch batch = handle.prepareBatch(ackSql);
+        for (PendingJob job : jobs) {
+            batch.bind("id", job.getId()).bind(OWNER, owner).add();
+        }
+        if (batch.size() > 0) {
+            batch.execute();
+        }
+    }
+
+    private void reschedule(Handle handle, Iterable<PendingJob> jobs) {
+        DbConfig config = db.getConfig();
+        PreparedBatch batch = handle.prepareBatch(rescheduleSql);
+        for (PendingJob job : jobs) {
+            job.setNextRunAt(Date.from(Instant.now().plusMillis(
+                backoff(job.getErrorsCount(), config.getJobBackoff(), config.getJobMaxBackoff())
+            )));
+            batch.bind("id", job.getId()).bind(OWNER, owner)
+                .bind("errorsCount", job.getErrorsCount())
+                .bind("lastError", job.getLastError())
+                .bind("nextRunAt", job.getNextRunAt().toInstant())
+                .add();
+        }
+        if (batch.size() > 0) {
+            batch.execute();
+        }
+    }
+
+    static long backoff(int errors, long base, long max) {
+        long delay = base << Math.min(Math.max(0, errors - 1), 30);
+        if (delay <= 0 || delay > max) {
+            delay = max;
+        }
+        // Jitter, so that jobs failing together are not retried together
+        return delay - ThreadLocalRandom.current().nextLong(delay / 10 + 1);
+    }
+
+    private void recordStats(Jdbi link, String operation, Map<String, Object> tags) {
+        link.useHandle(h -> h.createQuery(statsSql).bind(OPERATION, operation).map((rs, ctx) -> {
+            long depth = rs.getLong(1);
+            Timestamp oldest = rs.getTimestamp(2);
+            metrics.gauge(CoreMetrics.PENDING_JOBS_DEPTH, depth, tags);
+            metrics.gauge(CoreMetrics.PENDING_JOBS_AGE,
+                oldest == null ? 0 : (System.currentTimeMillis() - oldest.getTime()) / 1000d, tags);
+            return depth;
+        }).one());
+    }
+
+    private ExecutorService getWorkers(String operation) {
+        return workers.computeIfAbsent(operation, key -> {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(Math.max(1, db.getConfig().getJobWorkers()), r -> {
+                Thread thread = new Thread(r, "jobs-" + key + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        });
+    }
+
+    @Override
+    public void destroy() {
+        workers.values().forEach(ExecutorService::shutdown);
+        workers.clear();
     }
 
 }
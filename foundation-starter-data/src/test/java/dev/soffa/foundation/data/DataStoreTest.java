@@ -0,0 +1,210 @@
+package dev.soffa.foundation.data;
+
+import dev.soffa.foundation.data.app.Product;
+import dev.soffa.foundation.data.app.TestDB;
+import dev.soffa.foundation.data.jdbi.BeanMapper;
+import dev.soffa.foundation.data.spring.DBImpl;
+import dev.soffa.foundation.error.TechnicalException;
+import dev.soffa.foundation.model.PageRequest;
+import dev.soffa.foundation.model.PagedResult;
+import dev.soffa.foundation.model.TenantId;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DataStoreTest {
+
+    private static final Date CREATED = new Date(1_600_000_000_000L);
+    private static final String PRODUCTS = "CREATE TABLE products (id varchar(64) PRIMARY KEY, "
+        + "code varchar(64) NOT NULL UNIQUE, name varchar(255), price int, created timestamp)";
+
+    private DBImpl db;
+
+    @AfterEach
+    public void tearDown() {
+        if (db != null) {
+            db.destroy();
+        }
+    }
+
+    private DataStore create(DbConfig config) {
+        db = TestDB.create(config);
+        return new SimpleDataStore(db);
+    }
+
+    @Test
+    public void testUpsertKeepsCreatedAndId() {
+        DataStore ds = create(TestDB.config());
+        ds.insert(new Product("p1", "A", "Apple", 10, CREATED));
+
+        Product product = ds.upsert(new Product("A", "Apricot"), "code");
+        assertEquals("p1", product.getId());
+        Product stored = ds.findById(Product.class, "p1").orElseThrow(IllegalStateException::new);
+        assertEquals("Apricot", stored.getName());
+        assertEquals(CREATED.getTime(), stored.getCreated().getTime());
+
+        List<Product> products = Arrays.asList(new Product("A", "Avocado"), new Product("B", "Banana"));
+        ds.upsertAll(products, "code");
+        assertEquals("p1", products.get(0).getId());
+        assertEquals(2, ds.count(Product.class));
+        stored = ds.findById(Product.class, "p1").orElseThrow(IllegalStateException::new);
+        assertEquals("Avocado", stored.getName());
+        assertEquals(CREATED.getTime(), stored.getCreated().getTime());
+    }
+
+    @Test
+    public void testChangeTrackingAfterBatchWrites() {
+        DataStore ds = create(TestDB.config());
+        BeanMapper<Product> mapper = BeanMapper.of(EntityInfo.get(Product.class, db.getTablesPrefix()));
+        List<Product> products = Arrays.asList(new Product("A", "Apple"), new Product("B", "Banana"));
+
+        ds.insertAll(products);
+        assertEquals(Collections.emptyList(), mapper.getChangedProperties(products.get(0)));
+
+        products.get(0).setName("Apricot");
+        assertEquals(Collections.singletonList("name"), mapper.getChangedProperties(products.get(0)));
+
+        ds.updateAll(products);
+        assertEquals(Collections.emptyList(), mapper.getChangedProperties(products.get(0)));
+
+        products.get(1).setPrice(5);
+        ds.upsertAll(products, "code");
+        assertEquals(Collections.emptyList(), mapper.getChangedProperties(products.get(1)));
+
+        ds.deleteAll(products);
+        assertEquals(0, ds.count(Product.class));
+    }
+
+    @Test
+    public void testBatchWritesAreChunked() {
+        DbConfig config = TestDB.config();
+        config.setBatchSize(2);
+        DataStore ds = create(config);
+        List<Product> products = products(5);
+
+        assertArrayEquals(new int[]{2, 2, 1}, ds.insertAll(products));
+        assertEquals(5, ds.count(Product.class));
+
+        products.forEach(p -> p.setPrice(1));
+        assertArrayEquals(new int[]{2, 2, 1}, ds.updateAll(products));
+        assertEquals(5, ds.count(Product.class, Criteria.of(Collections.singletonMap("price", 1))));
+
+        assertArrayEquals(new int[]{2, 2, 1}, ds.deleteAll(products));
+        assertEquals(0, ds.count(Product.class));
+    }
+
+    @Test
+    public void testPaging() {
+        DbConfig config = TestDB.config();
+        config.setMaxPageOffset(2);
+        DataStore ds = create(config);
+        ds.insertAll(products(10));
+
+        // Offset 3 is above max-page-offset: ids are selected first (deferred join)
+        PagedResult<Product> page = ds.find(Product.class, null, new PageRequest(1, 3), null);
+        assertEquals(Arrays.asList("p03", "p04", "p05"), ids(page));
+        assertEquals(10, page.getTotalElements());
+        assertEquals(4, page.getTotalPages());
+        assertFalse(page.isEstimated());
+        assertEquals("p05", page.getNext());
+
+        page = ds.find(Product.class, null, new PageRequest(1, 3), Sort.desc("code"));
+        assertEquals(Arrays.asList("p06", "p05", "p04"), ids(page));
+        page = ds.find(Product.class, null, PageRequest.after(page.getNext(), 3), Sort.desc("code"));
+        assertEquals(Arrays.asList("p03", "p02", "p01"), ids(page));
+
+        // Keyset seek, from the cursor of the previous page
+        page = ds.find(Product.class, null, PageRequest.after("p05", 3), null);
+        assertEquals(Arrays.asList("p06", "p07", "p08"), ids(page));
+        page = ds.find(Product.class, null, PageRequest.after(page.getNext(), 3), null);
+        assertEquals(Collections.singletonList("p09"), ids(page));
+        assertNull(page.getNext());
+
+        page = ds.find(Product.class, Criteria.of(Collections.singletonMap("price", 1)), PageRequest.after("p02", 2), Sort.desc("id"));
+        assertEquals(Arrays.asList("p01", "p00"), ids(page));
+        assertEquals(5, page.getTotalElements());
+
+        // Ties on the sort value are broken by the id
+        List<String> seen = new ArrayList<>();
+        page = ds.find(Product.class, null, new PageRequest(0, 3), Sort.asc("price"));
+        seen.addAll(ids(page));
+        while (page.getNext() != null) {
+            page = ds.find(Product.class, null, PageRequest.after(page.getNext(), 3), Sort.asc("price"));
+            seen.addAll(ids(page));
+        }
+        assertEquals(ids(products(10)), seen);
+    }
+
+    @Test
+    public void testFindAcrossTenants() {
+        DataStore ds = create(TestDB.config());
+        String[] tenants = {"t1", "t2", "t3"};
+        db.register(tenants, false);
+        try {
+            // No products table in t3
+            for (String tenant : new String[]{"t1", "t2"}) {
+                Jdbi.create(db.determineTargetDataSource(TenantId.of(tenant))).useHandle(h -> h.execute(PRODUCTS));
+            }
+            ds.insertAll(TenantId.of("t1"), Arrays.asList(product("a", 3), product("b", 1), product("c", 2)));
+            ds.insertAll(TenantId.of("t2"), Arrays.asList(product("a", 1), product("b", 4), product("c", null)));
+
+            // Ties on the price are broken by the id, nulls come last
+            CrossTenantResult<Product> result = ds.findAcrossTenants(Product.class, null, Sort.asc("price"), 10);
+            assertEquals(Arrays.asList("t2:a", "t1:b", "t1:c", "t1:a", "t2:b", "t2:c"), records(result));
+            assertTrue(result.isPartial());
+            assertEquals(Collections.singleton("t3"), result.getFailures().keySet());
+
+            // Ties on the id are broken by the tenant
+            result = ds.findAcrossTenants(Product.class, null, Sort.desc("id"), 3);
+            assertEquals(Arrays.asList("t1:c", "t2:c", "t1:b"), records(result));
+
+            result = ds.findAcrossTenants(Product.class, Criteria.of(Collections.singletonMap("price", 1)), null, 10);
+            assertEquals(Arrays.asList("t2:a", "t1:b"), records(result));
+
+            assertThrows(TechnicalException.class, () -> ds.findAcrossTenants(Product.class, null, null, 0));
+        } finally {
+            db.unregister(tenants);
+        }
+    }
+
+    private static Product product(String id, Integer price) {
+        return new Product(id, "C" + id, "Product " + id, price, null);
+    }
+
+    private static List<String> records(CrossTenantResult<Product> result) {
+        return result.getContent().stream()
+            .map(r -> r.getTenant() + ":" + r.getEntity().getId())
+            .collect(Collectors.toList());
+    }
+
+    private static List<Product> products(int count) {
+        return IntStream.range(0, count).mapToObj(i -> {
+            String id = String.format("p%02d", i);
+            return new Product(id, "C" + id, "Product " + i, i < 5 ? 1 : 2, null);
+        }).collect(Collectors.toList());
+    }
+
+    private static List<String> ids(PagedResult<Product> page) {
+        return ids(page.getContent());
+    }
+
+    private static List<String> ids(List<Product> products) {
+        return products.stream().map(Product::getId).collect(Collectors.toList());
+    }
+
+}
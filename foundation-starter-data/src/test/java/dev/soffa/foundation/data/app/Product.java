@@ -0,0 +1,30 @@
+package dev.soffa.foundation.data.app;
+
+import dev.soffa.foundation.annotation.Store;
+import dev.soffa.foundation.annotation.TrackChanges;
+import dev.soffa.foundation.data.EntityModel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@TrackChanges
+@Store("products")
+public class Product implements EntityModel {
+
+    private String id;
+    private String code;
+    private String name;
+    private Integer price;
+    private Date created;
+
+    public Product(String code, String name) {
+        this.code = code;
+        this.name = name;
+    }
+
+}
@@ -0,0 +1,55 @@
+package dev.soffa.foundation.data.app;
+
+import dev.soffa.foundation.config.AppConfig;
+import dev.soffa.foundation.data.DataSourceConfig;
+import dev.soffa.foundation.data.DbConfig;
+import dev.soffa.foundation.data.spring.DBImpl;
+import dev.soffa.foundation.model.TenantId;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * In-memory (H2) databases for tests that need a specific {@link DbConfig}: a default datasource migrated with the
+ * test changelog and a tenant template, each call uses new databases.
+ */
+public final class TestDB {
+
+    public static final String APPLICATION = "foundation-data";
+
+    private TestDB() {
+    }
+
+    public static DbConfig config() {
+        String name = "db" + UUID.randomUUID().toString().replace("-", "");
+        DbConfig config = new DbConfig();
+        config.setTablesPrefix("");
+        Map<String, DataSourceConfig> datasources = new HashMap<>();
+        datasources.put(TenantId.DEFAULT_VALUE, datasource("h2://mem/" + name, "application"));
+        datasources.put("__tenant__", datasource("h2://mem/" + name + "___tenant__", "false"));
+        config.setDatasources(datasources);
+        return config;
+    }
+
+    public static DBImpl create(DbConfig config) {
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.refresh();
+        AppConfig app = new AppConfig(APPLICATION);
+        app.setDb(config);
+        return new DBImpl(context, app);
+    }
+
+    public static DBImpl create() {
+        return create(config());
+    }
+
+    private static DataSourceConfig datasource(String url, String migration) {
+        DataSourceConfig config = new DataSourceConfig();
+        config.setUrl(url);
+        config.setMigration(migration);
+        return config;
+    }
+
+}
@@ -0,0 +1,118 @@
+package dev.soffa.foundation.data.spring;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TenantSchemaDataSourceTest {
+
+    private HikariDataSource hikari;
+    private SharedPool pool;
+
+    @BeforeEach
+    public void setUp() {
+        hikari = new HikariDataSource();
+        hikari.setJdbcUrl("jdbc:h2:mem:shared" + UUID.randomUUID().toString().replace("-", "") + ";DB_CLOSE_DELAY=-1");
+        hikari.setSchema("PUBLIC");
+        hikari.setMaximumPoolSize(4);
+        hikari.setConnectionTimeout(250);
+        pool = new SharedPool("h2://mem/shared", hikari);
+        Jdbi.create(hikari).useHandle(handle -> {
+            handle.execute("CREATE SCHEMA T1");
+            handle.execute("CREATE SCHEMA T2");
+        });
+    }
+
+    @AfterEach
+    public void tearDown() {
+        hikari.close();
+    }
+
+    @Test
+    public void testTenantsSeeTheirOwnSchema() throws SQLException {
+        TenantSchemaDataSource t1 = create("T1", 2);
+        TenantSchemaDataSource t2 = create("T2", 2);
+        Jdbi link1 = Jdbi.create(t1);
+        Jdbi link2 = Jdbi.create(t2);
+        link1.useHandle(handle -> {
+            handle.execute("CREATE TABLE items (name varchar(20))");
+            handle.execute("INSERT INTO items VALUES ('one')");
+            handle.execute("CREATE TABLE t1_only (name varchar(20))");
+        });
+        link2.useHandle(handle -> {
+            handle.execute("CREATE TABLE items (name varchar(20))");
+            handle.execute("INSERT INTO items VALUES ('two')");
+        });
+
+        // Connections are reused across schemas
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Collections.singletonList("one"), items(link1));
+            assertEquals(Collections.singletonList("two"), items(link2));
+        }
+        assertThrows(Exception.class, () -> link2.useHandle(handle -> handle.execute("SELECT * FROM t1_only")));
+
+        // The neutral schema is restored when a connection is returned to the pool
+        try (Connection connection = hikari.getConnection()) {
+            assertEquals("PUBLIC", connection.getSchema());
+        }
+        assertEquals(0, t1.getActiveConnections());
+        assertEquals(0, t2.getActiveConnections());
+
+        t1.close();
+        assertFalse(hikari.isClosed());
+        t2.close();
+        assertTrue(hikari.isClosed());
+    }
+
+    @Test
+    public void testConnectionsOfATenantAreLimited() throws SQLException {
+        TenantSchemaDataSource t1 = create("T1", 2);
+        TenantSchemaDataSource t2 = create("T2", 2);
+        Connection first = t1.getConnection();
+        Connection second = t1.getConnection();
+        assertEquals(2, t1.getActiveConnections());
+        assertThrows(SQLTransientConnectionException.class, t1::getConnection);
+
+        // The shared pool still serves other tenants
+        try (Connection other = t2.getConnection()) {
+            assertEquals("T2", other.getSchema());
+            assertEquals(1, t2.getActiveConnections());
+        }
+        assertEquals(0, t2.getActiveConnections());
+
+        // A permit is returned once per connection
+        first.close();
+        first.close();
+        assertEquals(1, t1.getActiveConnections());
+        try (Connection third = t1.getConnection()) {
+            assertEquals("T1", third.getSchema());
+            assertEquals(2, t1.getActiveConnections());
+        }
+        second.close();
+        assertEquals(0, t1.getActiveConnections());
+    }
+
+    private TenantSchemaDataSource create(String schema, int maxConnections) {
+        assertTrue(pool.acquire());
+        return new TenantSchemaDataSource(pool, schema, maxConnections);
+    }
+
+    private static List<String> items(Jdbi link) {
+        return link.withHandle(handle -> handle.createQuery("SELECT name FROM items").mapTo(String.class).list());
+    }
+
+}
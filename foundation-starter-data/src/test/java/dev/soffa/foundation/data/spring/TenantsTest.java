@@ -0,0 +1,126 @@
+package dev.soffa.foundation.data.spring;
+
+import dev.soffa.foundation.data.DbConfig;
+import dev.soffa.foundation.data.app.TestDB;
+import dev.soffa.foundation.model.TenantId;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TenantsTest {
+
+    @Test
+    public void testTimeoutOfQueuedTenantTasks() {
+        DbConfig config = TestDB.config();
+        config.setTenantParallelism(2);
+        DBImpl db = TestDB.create(config);
+        String[] tenants = IntStream.range(0, 12).mapToObj(i -> "t" + i).toArray(String[]::new);
+        db.register(tenants, false);
+        try {
+            // 6 rounds of 100ms: the last tenants start long after the timeout, but each one completes within it
+            Map<String, String> results = db.withTenantsAsync(id -> {
+                sleep(100);
+                return id;
+            }, Duration.ofMillis(300)).join();
+            assertEquals(tenants.length, results.size());
+        } finally {
+            db.unregister(tenants);
+            db.destroy();
+        }
+    }
+
+    @Test
+    public void testLazyTenantsAreOpenedOnFirstUse() {
+        DBImpl db = lazy(600_000);
+        try {
+            db.register(new String[]{"t1", "t2"}, true);
+            assertTrue(db.tenantExists("t1"));
+            assertFalse(db.isOpen("t1"));
+
+            query(db, "t1");
+            assertTrue(db.isOpen("t1"));
+            assertFalse(db.isOpen("t2"));
+
+            db.warmUp("t2", "unknown");
+            assertTrue(db.isOpen("t2"));
+            assertFalse(db.tenantExists("unknown"));
+        } finally {
+            db.destroy();
+        }
+    }
+
+    @Test
+    public void testIdleTenantsAreClosed() throws SQLException {
+        DBImpl db = lazy(0);
+        try {
+            db.register(new String[]{"t1", "t2"}, true);
+            query(db, "t1");
+            try (Connection ignored = db.determineTargetDataSource(TenantId.of("t2")).getConnection()) {
+                sleep(10);
+                db.closeIdleTenants();
+                assertFalse(db.isOpen("t1"));
+                // Connections in use
+                assertTrue(db.isOpen("t2"));
+            }
+            db.closeIdleTenants();
+            assertFalse(db.isOpen("t2"));
+
+            // Reopened on the next use
+            query(db, "t1");
+            assertTrue(db.isOpen("t1"));
+        } finally {
+            db.destroy();
+        }
+    }
+
+    @Test
+    public void testMigrationsAreSkippedWhenTheChangelogIsUnchanged() {
+        DbConfig config = TestDB.config();
+        DBImpl first = TestDB.create(config);
+        DBImpl second = null;
+        try {
+            Jdbi link = Jdbi.create(first.determineTargetDataSource(TenantId.DEFAULT));
+            link.useHandle(handle -> handle.execute("DELETE FROM databasechangelog"));
+            // Liquibase would run every changeSet again (and fail on the existing tables)
+            second = TestDB.create(config);
+            assertEquals(0, link.withHandle(handle -> handle.createQuery("SELECT COUNT(*) FROM databasechangelog")
+                .mapTo(Integer.class).one()));
+        } finally {
+            if (second != null) {
+                second.destroy();
+            }
+            first.destroy();
+        }
+    }
+
+    private static DBImpl lazy(long idleTimeout) {
+        DbConfig config = TestDB.config();
+        config.setLazyTenants(true);
+        config.setTenantIdleTimeout(idleTimeout);
+        return TestDB.create(config);
+    }
+
+    private static void query(DBImpl db, String tenant) {
+        Jdbi.create(db.determineTargetDataSource(TenantId.of(tenant)))
+            .useHandle(handle -> handle.createQuery("SELECT 1").mapTo(Integer.class).one());
+    }
+
+    static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
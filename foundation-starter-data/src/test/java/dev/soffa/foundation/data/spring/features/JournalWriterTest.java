@@ -0,0 +1,220 @@
+package dev.soffa.foundation.data.spring.features;
+
+import dev.soffa.foundation.data.DbConfig;
+import dev.soffa.foundation.extra.journal.Journal;
+import dev.soffa.foundation.metric.NoopMetricsRegistryImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JournalWriterTest {
+
+    private final List<String> written = new CopyOnWriteArrayList<>();
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    // Number of sink calls to fail
+    private final AtomicInteger failures = new AtomicInteger();
+    private Path spillFile;
+    private JournalWriter writer;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        spillFile = Files.createTempDirectory("journal").resolve("spill.jsonl");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        release.countDown();
+        if (writer != null) {
+            writer.close();
+        }
+        Files.deleteIfExists(spillFile);
+        Files.deleteIfExists(spillFile.getParent());
+    }
+
+    private JournalWriter create(DbConfig config, boolean blocking) {
+        config.setJournalSpillFile(spillFile.toString());
+        writer = new JournalWriter("foundation-data", config, new NoopMetricsRegistryImpl(), (tenant, rows) -> {
+            writing.countDown();
+            if (failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("Database unavailable");
+            }
+            if (blocking) {
+                await(release);
+            }
+            rows.forEach(row -> written.add((tenant == null ? "" : tenant + ":") + row.getSubject()));
+        });
+        return writer;
+    }
+
+    @Test
+    public void testFlushOnBatchSize() {
+        DbConfig config = new DbConfig();
+        config.setJournalBatchSize(3);
+        config.setJournalFlushInterval(60_000);
+        create(config, false);
+        append("r1", "r2");
+        sleep(100);
+        assertTrue(written.isEmpty());
+        append("r3");
+        waitFor(() -> written.size() == 3);
+        assertEquals(Arrays.asList("r1", "r2", "r3"), written);
+    }
+
+    @Test
+    public void testFlushOnInterval() {
+        DbConfig config = new DbConfig();
+        config.setJournalBatchSize(100);
+        config.setJournalFlushInterval(50);
+        create(config, false);
+        append("r1");
+        waitFor(() -> written.size() == 1);
+    }
+
+    @Test
+    public void testOverflowDrop() {
+        fillBuffer(DbConfig.OVERFLOW_DROP);
+        assertTrue(writer.append(null, row("r4")));
+        release.countDown();
+        writer.close();
+        assertEquals(Arrays.asList("r1", "r2", "r3"), written);
+    }
+
+    @Test
+    public void testOverflowBlock() {
+        fillBuffer(DbConfig.OVERFLOW_BLOCK);
+        CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> writer.append(null, row("r4")));
+        sleep(100);
+        assertFalse(blocked.isDone());
+        release.countDown();
+        assertTrue(blocked.join());
+        writer.close();
+        assertEquals(Arrays.asList("r1", "r2", "r3", "r4"), written);
+    }
+
+    @Test
+    public void testOverflowSpill() throws IOException {
+        fillBuffer(DbConfig.OVERFLOW_SPILL);
+        assertTrue(writer.append("t1", row("r4")));
+        assertEquals(1, Files.readAllLines(spillFile, StandardCharsets.UTF_8).size());
+        release.countDown();
+        writer.close();
+        assertEquals(Arrays.asList("r1", "r2", "r3"), written);
+
+        // Spilled rows are written by the next writer
+        written.clear();
+        create(new DbConfig(), false);
+        waitFor(() -> written.size() == 1);
+        assertEquals("t1:r4", written.get(0));
+        waitFor(() -> !Files.exists(spillFile));
+    }
+
+    @Test
+    public void testDrainOnClose() {
+        DbConfig config = new DbConfig();
+        config.setJournalBatchSize(100);
+        config.setJournalFlushInterval(60_000);
+        create(config, false);
+        append("r1", "r2");
+        writer.append("t1", row("r3"));
+        writer.close();
+        assertEquals(Arrays.asList("r1", "r2", "t1:r3"), written.stream().sorted().collect(Collectors.toList()));
+        assertFalse(writer.append(null, row("r4")));
+    }
+
+    @Test
+    public void testFailedWritesAreRetried() {
+        DbConfig config = new DbConfig();
+        config.setJournalBatchSize(1);
+        failures.set(2);
+        create(config, false);
+        append("r1");
+        waitFor(() -> written.size() == 1);
+        assertFalse(Files.exists(spillFile));
+    }
+
+    @Test
+    public void testFailedWritesAreSpilled() throws IOException {
+        DbConfig config = new DbConfig();
+        config.setJournalBatchSize(1);
+        failures.set(Integer.MAX_VALUE);
+        // Whatever the overflow policy (block by default)
+        create(config, false);
+        append("r1");
+        waitFor(() -> Files.exists(spillFile));
+        writer.close();
+        assertTrue(written.isEmpty());
+        assertEquals(1, Files.readAllLines(spillFile, StandardCharsets.UTF_8).size());
+
+        failures.set(0);
+        create(new DbConfig(), false);
+        waitFor(() -> written.size() == 1);
+    }
+
+    /**
+     * Buffer of 2 rows, full while the flusher is blocked writing r1.
+     */
+    private void fillBuffer(String overflow) {
+        DbConfig config = new DbConfig();
+        config.setJournalBufferSize(2);
+        config.setJournalBatchSize(1);
+        config.setJournalFlushInterval(60_000);
+        config.setJournalOverflow(overflow);
+        create(config, true);
+        append("r1");
+        await(writing);
+        append("r2", "r3");
+    }
+
+    private void append(String... subjects) {
+        Stream.of(subjects).forEach(subject -> assertTrue(writer.append(null, row(subject))));
+    }
+
+    private static Journal row(String subject) {
+        return Journal.builder().id(subject).kind("test").event("test").subject(subject).build();
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition not met within 5s");
+            sleep(10);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
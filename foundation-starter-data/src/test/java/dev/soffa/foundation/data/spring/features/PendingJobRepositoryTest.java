@@ -0,0 +1,144 @@
+package dev.soffa.foundation.data.spring.features;
+
+import dev.soffa.foundation.data.DbConfig;
+import dev.soffa.foundation.data.app.TestDB;
+import dev.soffa.foundation.data.spring.DBImpl;
+import dev.soffa.foundation.extra.jobs.PendingJob;
+import dev.soffa.foundation.metric.MetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PendingJobRepositoryTest {
+
+    private static final String OPERATION = "send_mail";
+
+    private final List<PendingJobRepositoryImpl> repositories = new ArrayList<>();
+    private DBImpl db;
+
+    @AfterEach
+    public void tearDown() {
+        repositories.forEach(PendingJobRepositoryImpl::destroy);
+        if (db != null) {
+            db.destroy();
+        }
+    }
+
+    private PendingJobRepositoryImpl create() {
+        if (db == null) {
+            DbConfig config = TestDB.config();
+            config.setJobBatchSize(5);
+            config.setJobWorkers(2);
+            db = TestDB.create(config);
+        }
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.refresh();
+        ObjectProvider<MetricsRegistry> metrics = context.getBeanProvider(MetricsRegistry.class);
+        PendingJobRepositoryImpl repository = new PendingJobRepositoryImpl(db, metrics);
+        repositories.add(repository);
+        return repository;
+    }
+
+    @Test
+    public void testConsumeAcknowledgesAndReschedules() {
+        PendingJobRepositoryImpl jobs = create();
+        jobs.create(OPERATION, "done");
+        jobs.create(OPERATION, "retry");
+        jobs.create(OPERATION, "failed");
+        jobs.create("other", "done");
+
+        List<String> consumed = new CopyOnWriteArrayList<>();
+        long start = System.currentTimeMillis();
+        jobs.consume(OPERATION, job -> {
+            consumed.add(job.getSubject());
+            if ("failed".equals(job.getSubject())) {
+                throw new IllegalStateException("Mail server unavailable");
+            }
+            return "done".equals(job.getSubject());
+        });
+        assertEquals(3, consumed.size());
+        assertFalse(jobs.isPending(OPERATION, "done"));
+        assertTrue(jobs.isPending("other", "done"));
+
+        PendingJob retry = find(jobs, "retry");
+        assertEquals(0, retry.getErrorsCount());
+        assertNull(retry.getLockedBy());
+        assertNull(retry.getLockedUntil());
+        assertTrue(retry.getNextRunAt().getTime() > start);
+
+        PendingJob failed = find(jobs, "failed");
+        assertEquals(1, failed.getErrorsCount());
+        assertEquals("Mail server unavailable", failed.getLastError());
+        assertNull(failed.getLockedBy());
+        assertTrue(failed.getNextRunAt().getTime() > start);
+
+        // Rescheduled jobs are not due yet
+        consumed.clear();
+        jobs.consume(OPERATION, job -> consumed.add(job.getSubject()));
+        assertTrue(consumed.isEmpty());
+    }
+
+    @Test
+    public void testBackoff() {
+        assertBetween(900, 1_000, PendingJobRepositoryImpl.backoff(1, 1_000, 60_000));
+        assertBetween(1_800, 2_000, PendingJobRepositoryImpl.backoff(2, 1_000, 60_000));
+        assertBetween(7_200, 8_000, PendingJobRepositoryImpl.backoff(4, 1_000, 60_000));
+        assertBetween(54_000, 60_000, PendingJobRepositoryImpl.backoff(10, 1_000, 60_000));
+        assertBetween(54_000, 60_000, PendingJobRepositoryImpl.backoff(1_000, 1_000, 60_000));
+    }
+
+    @Test
+    public void testConsumersClaimDisjointJobs() {
+        PendingJobRepositoryImpl first = create();
+        PendingJobRepositoryImpl second = create();
+        for (int i = 0; i < 30; i++) {
+            first.create(OPERATION, "s" + i);
+        }
+        List<String> consumed = new CopyOnWriteArrayList<>();
+        CompletableFuture<?>[] consumers = new CompletableFuture<?>[2];
+        int index = 0;
+        for (PendingJobRepositoryImpl jobs : new PendingJobRepositoryImpl[]{first, second}) {
+            consumers[index++] = CompletableFuture.runAsync(() -> jobs.consume(OPERATION, job -> {
+                consumed.add(job.getSubject());
+                sleep(10);
+                return true;
+            }));
+        }
+        CompletableFuture.allOf(consumers).join();
+
+        assertEquals(30, consumed.size());
+        assertEquals(30, new HashSet<>(consumed).size());
+        assertEquals(0, first.count());
+    }
+
+    private static PendingJob find(PendingJobRepositoryImpl jobs, String subject) {
+        return jobs.find(Collections.singletonMap("subject", subject)).get(0);
+    }
+
+    private static void assertBetween(long min, long max, long value) {
+        assertTrue(value >= min && value <= max, value + " is not within [" + min + ", " + max + "]");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
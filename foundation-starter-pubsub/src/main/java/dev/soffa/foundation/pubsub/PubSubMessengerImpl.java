@@ -43,6 +43,11 @@ public class PubSubMessengerImpl implements PubSubMessenger {
         getDefaultClient().subscribe(subject, broadcast, messageHandler);
     }
 
+    @Override
+    public void listen(@NonNull String subject, MessageHandler messageHandler) {
+        getDefaultClient().listen(subject, messageHandler);
+    }
+
     @Override
     public <T> CompletableFuture<T> request(@NonNull String subject, @NotNull Message message, Class<T> expectedClass) {
         return getDefaultClient().request(subject, message, expectedClass);
@@ -60,6 +60,14 @@ public class NatsClient extends AbstractPubSubClient implements PubSubClient {
         }
     }
 
+    @Override
+    public void listen(@NonNull String subject, MessageHandler messageHandler) {
+        LOG.info("Configuring fan-out subscription to %s", subject);
+        @SuppressWarnings("PMD")
+        Dispatcher dispatcher = connection.createDispatcher();
+        dispatcher.subscribe(subject, new NatsMessageHandler(connection, messageHandler));
+    }
+
     private void configure() {
         try {
             String[] addresses = config.getAddresses().split(",");
@@ -0,0 +1,29 @@
+package dev.soffa.foundation.spring.aop;
+
+import dev.soffa.foundation.data.RoutingHolder;
+import lombok.SneakyThrows;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+@Aspect
+@Component
+public class ReadOnlyAspect {
+
+    @SneakyThrows
+    @Around("@annotation(dev.soffa.foundation.annotation.ReadOnly) || @within(dev.soffa.foundation.annotation.ReadOnly)")
+    public Object handleOperation(ProceedingJoinPoint pjp) {
+        //noinspection Convert2Lambda
+        return RoutingHolder.readOnly(new Supplier<Object>() {
+            @SneakyThrows
+            @Override
+            public Object get() {
+                return pjp.proceed(pjp.getArgs());
+            }
+        });
+    }
+
+}
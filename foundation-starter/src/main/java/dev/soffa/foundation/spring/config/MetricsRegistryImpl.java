@@ -1,12 +1,14 @@
 package dev.soffa.foundation.spring.config;
 
 import com.google.common.base.CaseFormat;
+import com.google.common.util.concurrent.AtomicDouble;
 import dev.soffa.foundation.commons.MapUtil;
 import dev.soffa.foundation.commons.TextUtil;
 import dev.soffa.foundation.metric.MetricsRegistry;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.search.MeterNotFoundException;
-import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
 import java.time.Duration;
@@ -14,13 +16,16 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 public class MetricsRegistryImpl implements MetricsRegistry {
 
     public static final String GLOBAL = "_global";
     private final MeterRegistry registry;
+    // Micrometer only keeps a weak reference to the gauge values
+    private final Map<String, AtomicDouble> gauges = new ConcurrentHashMap<>();
 
     @Override
     public void increment(String name, double amount, Map<String, Object> tags) {
@@ -31,6 +36,16 @@ public class MetricsRegistryImpl implements MetricsRegistry {
         }
     }
 
+    @Override
+    public void gauge(String name, double value, Map<String, Object> tags) {
+        final String lName = normalize(name);
+        String[] lTags = MapUtil.isEmpty(tags) ? new String[0] : createTags(tags);
+        gauges.computeIfAbsent(lName + String.join(",", lTags), key -> {
+            // EL
+            return registry.gauge(lName, Tags.of(lTags), new AtomicDouble());
+        }).set(value);
+    }
+
     @Override
     public double globalCounter(String name) {
         return counter(name + GLOBAL);
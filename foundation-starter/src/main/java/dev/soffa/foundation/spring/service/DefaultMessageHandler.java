@@ -7,6 +7,7 @@ import dev.soffa.foundation.context.Context;
 import dev.soffa.foundation.context.ContextHolder;
 import dev.soffa.foundation.context.ContextUtil;
 import dev.soffa.foundation.core.Operation;
+import dev.soffa.foundation.data.RoutingHolder;
 import dev.soffa.foundation.error.TechnicalException;
 import dev.soffa.foundation.message.Message;
 import dev.soffa.foundation.message.MessageFactory;
@@ -35,6 +36,11 @@ public class DefaultMessageHandler implements MessageHandler {
 
     @Override
     public Optional<Object> handle(@NonNull Message message) {
+        // A message is a unit of work, its writes must not pin the reads of the next messages of the consumer thread
+        return RoutingHolder.unitOfWork(() -> dispatch(message));
+    }
+
+    private Optional<Object> dispatch(Message message) {
         final Context context = message.getContext();
         ContextHolder.set(context);
         TenantHolder.set(context.getTenantId());